@@ -0,0 +1,49 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/* Runs the benchmarks matching the arguments (all of them by default) and reports every result
+ * in ns/chunk and MB/s. Each benchmark class tells how many bytes and chunks one operation covers.
+ * Build the Pipeline, Reader, Executor and Writer projects first, the stages are loaded from their
+ * output directories. Run from the Benchmark directory or pass -Dpipeline.dir=<Pipeline project> */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .mode(Mode.AverageTime)
+                .timeUnit(TimeUnit.NANOSECONDS)
+                .jvmArgsAppend("-D" + Stages.PIPELINE_DIR + "=" + Stages.PipelineDir().getPath());
+        if (args.length == 0) {
+            options.include("bench\\..*Benchmark");
+        }
+        for (String pattern : args) {
+            options.include(pattern);
+        }
+
+        Collection<RunResult> results = new Runner(options.build()).run();
+
+        System.out.println();
+        System.out.printf("%-80s %16s %12s%n", "Benchmark", "ns/chunk", "MB/s");
+        for (RunResult result : results) {
+            BenchmarkParams params = result.getParams();
+            String benchmark = params.getBenchmark();
+            Class<?> benchmarkClass = Class.forName(benchmark.substring(0, benchmark.lastIndexOf('.')));
+            long bytes = (Long) benchmarkClass.getMethod("BytesPerOp", BenchmarkParams.class).invoke(null, params);
+            long chunks = (Long) benchmarkClass.getMethod("ChunksPerOp", BenchmarkParams.class).invoke(null, params);
+            double nanos = result.getPrimaryResult().getScore();
+
+            StringBuilder name = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1));
+            for (String key : params.getParamsKeys()) {
+                name.append(' ').append(key).append('=').append(params.getParam(key));
+            }
+            System.out.printf("%-80s %16.1f %12.1f%n", name, nanos / chunks, bytes * 1e3 / nanos);
+        }
+    }
+}
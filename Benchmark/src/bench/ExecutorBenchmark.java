@@ -0,0 +1,49 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import ru.spbstu.pipeline.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/* Executor.execute on a single chunk plus taking the product back, the work its run loop does per chunk.
+ * 4100 is there for the unaligned path, which pads into a fresh product instead of rotating in place */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutorBenchmark {
+    @Param({"64", "4096", "4100", "65536", "1048576"})
+    public int chunkSize;
+
+    private MethodHandle _execute;
+    private IMediator _mediator;
+    private byte[] _chunk;
+
+    @Setup
+    public void Setup() throws Exception {
+        IExecutor executor = Stages.Create("Executor");
+        Stages.Check(executor.setConfig(Stages.WriteConfig("SINGLE_SHIFT=8", "SHIFT_QUANTITY=2", "WORKER_COUNT=1")),
+                "Executor config");
+        _execute = Stages.Method(executor, "execute", RC.class, byte[].class, int.class);
+        _mediator = executor.getMediator(TYPE.BYTE);
+        _chunk = Stages.RandomBytes(chunkSize);
+    }
+
+    @Benchmark
+    public Object Execute() throws Throwable {
+        Stages.Check((RC) _execute.invokeExact(_chunk, 0), "Executor");
+        return _mediator.getData(0);
+    }
+
+    public static long BytesPerOp(BenchmarkParams params) {
+        return Long.parseLong(params.getParam("chunkSize"));
+    }
+
+    public static long ChunksPerOp(BenchmarkParams params) {
+        return 1;
+    }
+}
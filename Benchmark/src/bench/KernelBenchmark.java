@@ -0,0 +1,68 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/* Word kernels against the scalar ones, over heap and direct chunks: the rotation of the Executor and
+ * XorKernels. The key is the one of AntonovExecutorConfig, 6 bytes, so the XOR word kernel unrolls it to 24 */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark {
+    private static final byte[] KEY = {1, 41, 75, 47, 123, -15};
+    private static final int SHIFT = 8;
+
+    @Param({"64", "4096", "65536", "1048576"})
+    public int chunkSize;
+
+    @Param({"WORD", "SCALAR"})
+    public String kernel;
+
+    @Param({"false", "true"})
+    public boolean isDirect;
+
+    private MethodHandle _rotate;
+    private MethodHandle _xor;
+    private ByteBuffer _chunk;
+
+    @Setup
+    public void Setup() throws Exception {
+        Class<?> kernels = Class.forName("WordKernels");
+        String suffix = kernel.equals("WORD") ? "" : "Scalar";
+        _rotate = MethodHandles.publicLookup().findStatic(kernels, "Rotate" + suffix,
+                MethodType.methodType(void.class, ByteBuffer.class, int.class));
+        _xor = MethodHandles.lookup().findStatic(XorKernels.class, "Xor" + suffix,
+                MethodType.methodType(void.class, ByteBuffer.class, byte[].class));
+        _chunk = isDirect ? ByteBuffer.allocateDirect(chunkSize) : ByteBuffer.allocate(chunkSize);
+        _chunk.put(Stages.RandomBytes(chunkSize)).clear();
+    }
+
+    @Benchmark
+    public ByteBuffer Rotate() throws Throwable {
+        _rotate.invokeExact(_chunk, SHIFT);
+        return _chunk;
+    }
+
+    @Benchmark
+    public ByteBuffer Xor() throws Throwable {
+        _xor.invokeExact(_chunk, KEY);
+        return _chunk;
+    }
+
+    public static long BytesPerOp(BenchmarkParams params) {
+        return Long.parseLong(params.getParam("chunkSize"));
+    }
+
+    public static long ChunksPerOp(BenchmarkParams params) {
+        return 1;
+    }
+}
@@ -0,0 +1,135 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/* Full Manager run of a shipped ManagerConfig*.txt, from starting the stage threads to joining them.
+ * Forming the pipeline (class loading, configs, streams) is left out of the measurement.
+ * "config" keeps the INPUT of the config, a number replaces it with a random file of that size.
+ * ManagerConfig3 and ManagerConfig4 are not listed: their Antonov stages do not finish a run */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PipelineBenchmark {
+    private static final String CONFIG_INPUT = "config";
+
+    @Param({"ManagerConfig1", "ManagerConfig2", "ManagerConfig5", "ManagerConfig6"})
+    public String config;
+
+    @Param({CONFIG_INPUT, "16777216"})
+    public String input;
+
+    private String _config;
+    private Constructor<?> _newManager;
+    private Method _formPipeline;
+    private Method _manageExecution;
+    private Method _isSuccessful;
+    private Object _manager;
+
+    @Setup(Level.Trial)
+    public void SetupTrial() throws Exception {
+        File output = File.createTempFile("bench", ".out");
+        output.deleteOnExit();
+        String inputPath = input.equals(CONFIG_INPUT) ? null :
+                Stages.RandomFile(Long.parseLong(input)).getAbsolutePath();
+        _config = RewriteConfig(config, inputPath, output.getAbsolutePath());
+
+        Class<?> manager = Class.forName("Manager");
+        _newManager = manager.getConstructor(String.class);
+        _formPipeline = manager.getMethod("FormPipeline");
+        _manageExecution = manager.getMethod("ManageExecution");
+        _isSuccessful = Class.forName("PipelineResult").getMethod("IsSuccessful");
+    }
+
+    @Setup(Level.Invocation)
+    public void SetupInvocation() throws Exception {
+        _manager = _newManager.newInstance(_config);
+        if (!(Boolean) _formPipeline.invoke(_manager)) {
+            throw new IllegalStateException("Pipeline construction failed for " + config);
+        }
+    }
+
+    @Benchmark
+    public Object Run() throws Exception {
+        Object result = _manageExecution.invoke(_manager);
+        if (!(Boolean) _isSuccessful.invoke(result)) {
+            throw new IllegalStateException(config + " failed: " + result);
+        }
+        return result;
+    }
+
+    public static long BytesPerOp(BenchmarkParams params) throws IOException {
+        String input = params.getParam("input");
+        if (!input.equals(CONFIG_INPUT)) {
+            return Long.parseLong(input);
+        }
+        return Resolve(ReadParameter(ConfigFile(params.getParam("config")), "INPUT")).length();
+    }
+
+    /* Chunks the reader cuts the input into, going by the size parameter of its config */
+    public static long ChunksPerOp(BenchmarkParams params) throws IOException {
+        File readerConfig = Resolve(ReadParameter(ConfigFile(params.getParam("config")), "READER_CONFIG"));
+        String size = ReadParameter(readerConfig, "BUFFER_SIZE");
+        if (size == null) {
+            size = ReadParameter(readerConfig, "SIZE");
+        }
+        long chunkSize = size == null ? 0 : Long.parseLong(size);
+        return chunkSize > 0 ? Math.max((BytesPerOp(params) + chunkSize - 1) / chunkSize, 1) : 1;
+    }
+
+    private static File ConfigFile(String config) {
+        return new File(Stages.PipelineDir(), "configs" + File.separator + config + ".txt");
+    }
+
+    /* Shipped configs use Windows separators and paths relative to the Pipeline project, so every path
+     * is made absolute and the output goes to a temporary file */
+    private static String RewriteConfig(String config, String input, String output) throws IOException {
+        File rewritten = File.createTempFile(config, ".txt");
+        rewritten.deleteOnExit();
+        try (BufferedReader reader = new BufferedReader(new FileReader(ConfigFile(config)));
+             PrintWriter writer = new PrintWriter(rewritten)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] pair = line.split("=", 2);
+                if (pair.length == 2 && pair[0].equals("INPUT")) {
+                    line = "INPUT=" + (input != null ? input : Resolve(pair[1]).getPath());
+                } else if (pair.length == 2 && pair[0].equals("OUTPUT")) {
+                    line = "OUTPUT=" + output;
+                } else if (pair.length == 2 && pair[0].endsWith("_CONFIG")) {
+                    line = pair[0] + "=" + Resolve(pair[1]).getPath();
+                }
+                writer.print(line + "\n");
+            }
+        }
+        return rewritten.getAbsolutePath();
+    }
+
+    private static File Resolve(String path) {
+        return new File(Stages.PipelineDir(), path.trim().replace('\\', File.separatorChar));
+    }
+
+    private static String ReadParameter(File config, String name) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(config))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] pair = line.split("=", 2);
+                if (pair.length == 2 && pair[0].trim().equals(name)) {
+                    return pair[1].trim();
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,98 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import ru.spbstu.pipeline.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.Buffer;
+import java.util.concurrent.TimeUnit;
+
+/* Reader.execute over a whole input file, with a consumer that takes every chunk as soon as it is
+ * notified, through getBuffer() when the mediator offers it, the same way ChunkChannel does */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReaderBenchmark {
+    private static final long INPUT_SIZE = 16 << 20;
+
+    @Param({"32", "4096", "65536"})
+    public int bufferSize;
+
+    @Param({"STREAM", "MAPPED", "DIRECT"})
+    public String readMode;
+
+    private File _input;
+    private IReader _reader;
+    private MethodHandle _execute;
+    private long _bytesRead;
+
+    @Setup(Level.Trial)
+    public void SetupTrial() throws Exception {
+        _input = Stages.RandomFile(INPUT_SIZE);
+        _reader = Stages.Create("Reader");
+        Stages.Check(_reader.setConfig(Stages.WriteConfig("BUFFER_SIZE=" + bufferSize, "READ_MODE=" + readMode)),
+                "Reader config");
+        _execute = Stages.Method(_reader, "execute", RC.class);
+
+        IMediator mediator = _reader.getMediator(TYPE.BYTE);
+        Class<?> bufferMediator = Class.forName("BufferMediator");
+        if (bufferMediator.isInstance(mediator)) {
+            MethodHandle getBuffer = MethodHandles.publicLookup()
+                    .findVirtual(bufferMediator, "getBuffer", MethodType.methodType(Buffer.class, int.class))
+                    .bindTo(mediator);
+            /* Chunks go back to the reader's pool, as the last stage of a pipeline would release them */
+            Class<?> chunkPool = Class.forName("ChunkPool");
+            Object pool = chunkPool.getMethod("Of", IMediator.class).invoke(null, mediator);
+            MethodHandle release = pool == null ? null : MethodHandles.publicLookup()
+                    .findVirtual(chunkPool, "Release", MethodType.methodType(void.class, Object.class))
+                    .bindTo(pool);
+            _reader.addNotifier(chunkId -> {
+                try {
+                    Buffer chunk = (Buffer) getBuffer.invokeExact(chunkId);
+                    _bytesRead += chunk == null ? 0 : chunk.remaining();
+                    if (chunk != null && release != null) {
+                        release.invokeExact((Object) chunk);
+                    }
+                    return RC.CODE_SUCCESS;
+                } catch (Throwable e) {
+                    return RC.CODE_SYNCHRONIZATION_ERROR;
+                }
+            });
+        } else {
+            _reader.addNotifier(chunkId -> {
+                byte[] chunk = (byte[]) mediator.getData(chunkId);
+                _bytesRead += chunk == null ? 0 : chunk.length;
+                return RC.CODE_SUCCESS;
+            });
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void SetupInvocation() throws Exception {
+        _bytesRead = 0;
+        Stages.Check(_reader.setInputStream(new FileInputStream(_input)), "Reader input");
+    }
+
+    @Benchmark
+    public long Read() throws Throwable {
+        Stages.Check((RC) _execute.invokeExact(), "Reader");
+        return _bytesRead;
+    }
+
+    public static long BytesPerOp(BenchmarkParams params) {
+        return INPUT_SIZE;
+    }
+
+    public static long ChunksPerOp(BenchmarkParams params) {
+        long bufferSize = Long.parseLong(params.getParam("bufferSize"));
+        return (INPUT_SIZE + bufferSize - 1) / bufferSize;
+    }
+}
@@ -0,0 +1,75 @@
+package bench;
+
+import ru.spbstu.pipeline.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/* Stages live in the default package and cannot be imported from here, so benchmarks reach them
+ * the way Manager does: by class name, through the lab interfaces, and through method handles for the rest */
+final class Stages {
+    static final String PIPELINE_DIR = "pipeline.dir";
+    static final Logger LOGGER = Logger.getLogger("Benchmark");
+
+    private Stages() {}
+
+    @SuppressWarnings("unchecked")
+    static <T> T Create(String className) throws ReflectiveOperationException {
+        return (T) Class.forName(className).getConstructor(Logger.class).newInstance(LOGGER);
+    }
+
+    /* Public method of a stage bound to it, e.g. Method(executor, "execute", RC.class, byte[].class, int.class) */
+    static MethodHandle Method(Object stage, String name, Class<?> result, Class<?>... params)
+            throws ReflectiveOperationException {
+        return MethodHandles.publicLookup()
+                .findVirtual(stage.getClass(), name, MethodType.methodType(result, params)).bindTo(stage);
+    }
+
+    static void Check(RC result, String what) {
+        if (result != RC.CODE_SUCCESS) {
+            throw new IllegalStateException(what + " failed with " + result);
+        }
+    }
+
+    /* Stage configs are read line by line, so every parameter goes on its own line */
+    static String WriteConfig(String... lines) throws IOException {
+        File config = File.createTempFile("bench", ".txt");
+        config.deleteOnExit();
+        try (PrintWriter writer = new PrintWriter(config)) {
+            for (String line : lines) {
+                writer.print(line + "\n");
+            }
+        }
+        return config.getAbsolutePath();
+    }
+
+    static byte[] RandomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    static File RandomFile(long size) throws IOException {
+        File file = File.createTempFile("bench", ".bin");
+        file.deleteOnExit();
+        byte[] block = RandomBytes(1 << 16);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            for (long left = size; left > 0; left -= block.length) {
+                output.write(block, 0, (int) Math.min(left, block.length));
+            }
+        }
+        return file;
+    }
+
+    /* Directory of the Pipeline project, whose configs and test inputs the pipeline benchmarks use */
+    static File PipelineDir() {
+        return new File(System.getProperty(PIPELINE_DIR, "../Pipeline")).getAbsoluteFile();
+    }
+}
@@ -0,0 +1,110 @@
+package bench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/* Stress run of the stage handoff: thousands of short Reader->Executor->Writer pipelines over 1-byte
+ * chunks, for every channel capacity and wait strategy given. A lost wakeup shows up as a run that does
+ * not finish, so WAIT_TIMEOUT is left unset and a run past the deadline prints the stage threads and
+ * fails the harness. Not a JMH benchmark, run it as
+ * java bench.StressMain [runs] [input bytes] [deadline ms] [capacity,...] [strategy,...]
+ * with the Pipeline, Reader, Executor and Writer output directories on the classpath */
+public class StressMain {
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        long inputSize = args.length > 1 ? Long.parseLong(args[1]) : 64;
+        long deadline = args.length > 2 ? Long.parseLong(args[2]) : 10000;
+        String[] capacities = (args.length > 3 ? args[3] : "1,4").split(",");
+        String[] strategies = (args.length > 4 ? args[4] : "PARK,YIELD").split(",");
+
+        String input = Stages.RandomFile(inputSize).getAbsolutePath();
+        File output = File.createTempFile("stress", ".out");
+        output.deleteOnExit();
+        String readerConfig = Stages.WriteConfig("BUFFER_SIZE=1", "READ_MODE=STREAM");
+        String executorConfig = Stages.WriteConfig("SINGLE_SHIFT=8", "SHIFT_QUANTITY=1", "WORKER_COUNT=1");
+        String writerConfig = Stages.WriteConfig("BUFFER_SIZE=1");
+
+        Class<?> manager = Class.forName("Manager");
+        Constructor<?> newManager = manager.getConstructor(String.class);
+        Method formPipeline = manager.getMethod("FormPipeline");
+        Method manageExecution = manager.getMethod("ManageExecution");
+        Method isSuccessful = Class.forName("PipelineResult").getMethod("IsSuccessful");
+
+        ExecutorService watched = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "Stress run");
+            thread.setDaemon(true);
+            return thread;
+        });
+        boolean isHealthy = true;
+        try {
+            for (String capacity : capacities) {
+                for (String strategy : strategies) {
+                    String config = Stages.WriteConfig(
+                            "INPUT=" + input,
+                            "OUTPUT=" + output.getAbsolutePath(),
+                            "READER_NAME=Reader",
+                            "READER_CONFIG=" + readerConfig,
+                            "SHIFT_FORMATTER_NAME=Executor",
+                            "SHIFT_FORMATTER_CONFIG=" + executorConfig,
+                            "WRITER_NAME=Writer",
+                            "WRITER_CONFIG=" + writerConfig,
+                            "CHANNEL_CAPACITY=" + capacity.trim(),
+                            "WAIT_STRATEGY=" + strategy.trim(),
+                            "CHAIN=READER->SHIFT_FORMATTER->WRITER");
+                    String name = "capacity=" + capacity.trim() + " strategy=" + strategy.trim();
+
+                    long start = System.nanoTime();
+                    long worst = 0;
+                    int run = 0;
+                    for (; run < runs; run++) {
+                        long runStart = System.nanoTime();
+                        Object pipeline = newManager.newInstance(config);
+                        if (!(Boolean) formPipeline.invoke(pipeline)) {
+                            throw new IllegalStateException("Pipeline construction failed for " + name);
+                        }
+                        Future<?> result = watched.submit(() -> manageExecution.invoke(pipeline));
+                        try {
+                            Object pipelineResult = result.get(deadline, TimeUnit.MILLISECONDS);
+                            if (!(Boolean) isSuccessful.invoke(pipelineResult)) {
+                                System.out.println(name + ": run " + run + " failed: " + pipelineResult);
+                                break;
+                            }
+                        } catch (TimeoutException e) {
+                            System.out.println(name + ": run " + run + " hangs after " + deadline + " ms");
+                            DumpStages();
+                            break;
+                        }
+                        worst = Math.max(worst, System.nanoTime() - runStart);
+                    }
+                    isHealthy &= run == runs;
+                    System.out.printf("%-30s %6d of %d runs, %10.1f ms total, worst %8.2f ms%n",
+                            name, run, runs, (System.nanoTime() - start) / 1e6, worst / 1e6);
+                    if (run != runs) {
+                        break;
+                    }
+                }
+                if (!isHealthy) {
+                    break;
+                }
+            }
+        } finally {
+            watched.shutdownNow();
+        }
+        System.exit(isHealthy ? 0 : 1);
+    }
+
+    /* Stage threads are named after their stages, the ones of a hung run are still waiting */
+    private static void DumpStages() {
+        for (ThreadInfo thread : ManagementFactory.getThreadMXBean().dumpAllThreads(false, false)) {
+            System.out.print(thread);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import ru.spbstu.pipeline.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/* Writer and ChannelWriter execute on a single chunk. The output file is rewound every
+ * WRAP_BYTES so that a long iteration stays within the page cache instead of filling the disk */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriterBenchmark {
+    private static final long WRAP_BYTES = 64 << 20;
+
+    @Param({"Writer", "ChannelWriter"})
+    public String writer;
+
+    @Param({"4096", "65536"})
+    public int bufferSize;
+
+    @Param({"32", "4096", "65536"})
+    public int chunkSize;
+
+    private File _file;
+    private IWriter _writer;
+    private MethodHandle _execute;
+    private FileOutputStream _output;
+    private byte[] _chunk;
+    private long _written;
+
+    @Setup(Level.Trial)
+    public void SetupTrial() throws Exception {
+        _file = File.createTempFile("bench", ".out");
+        _file.deleteOnExit();
+        _writer = Stages.Create(writer);
+        String config = writer.equals("ChannelWriter") ?
+                Stages.WriteConfig("BUFFER_SIZE=" + bufferSize, "BUFFER_COUNT=4", "FLUSH_BYTES=262144",
+                        "FLUSH_CHUNKS=0", "FLUSH_MILLIS=0") :
+                Stages.WriteConfig("BUFFER_SIZE=" + bufferSize);
+        Stages.Check(_writer.setConfig(config), writer + " config");
+        _execute = Stages.Method(_writer, "execute", RC.class, byte[].class);
+        _chunk = Stages.RandomBytes(chunkSize);
+    }
+
+    @Setup(Level.Iteration)
+    public void SetupIteration() throws IOException {
+        _output = new FileOutputStream(_file);
+        _written = 0;
+        Stages.Check(_writer.setOutputStream(_output), writer + " output");
+    }
+
+    @TearDown(Level.Iteration)
+    public void TearDownIteration() throws IOException {
+        _output.close();
+    }
+
+    @Benchmark
+    public void Write() throws Throwable {
+        Stages.Check((RC) _execute.invokeExact(_chunk), writer);
+        if ((_written += _chunk.length) >= WRAP_BYTES) {
+            _output.getChannel().position(0);
+            _written = 0;
+        }
+    }
+
+    public static long BytesPerOp(BenchmarkParams params) {
+        return Long.parseLong(params.getParam("chunkSize"));
+    }
+
+    public static long ChunksPerOp(BenchmarkParams params) {
+        return 1;
+    }
+}
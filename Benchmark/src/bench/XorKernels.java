@@ -0,0 +1,49 @@
+package bench;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/* XOR done a long word at a time the way WordKernels rotates, against the byte loop it would replace.
+ * The only XOR stage is the foreign XOR_Encoder of Pipeline/libs, so the kernel lives here until a stage
+ * of ours needs it, and the benchmark tells what it would gain */
+final class XorKernels {
+    private static final int LONG_SIZE = 8;
+
+    private XorKernels() {}
+
+    /* XORs the remaining bytes of chunk with key repeated from the first of them. The key stream is
+     * unrolled to a whole number of words first, lcm(key length, LONG_SIZE) bytes */
+    static void Xor(ByteBuffer chunk, byte[] key) {
+        int period = key.length;
+        while (period % LONG_SIZE != 0) {
+            period += key.length;
+        }
+        ByteBuffer stream = ByteBuffer.allocate(period).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < period; i++) {
+            stream.put(i, key[i % key.length]);
+        }
+        long[] pattern = new long[period / LONG_SIZE];
+        stream.asLongBuffer().get(pattern);
+
+        ByteBuffer bytes = chunk.duplicate().order(ByteOrder.nativeOrder());
+        int words = bytes.remaining() / LONG_SIZE;
+        int from = bytes.position();
+        for (int i = 0, p = 0; i < words; i++) {
+            int index = from + i * LONG_SIZE;
+            bytes.putLong(index, bytes.getLong(index) ^ pattern[p]);
+            if (++p == pattern.length) {
+                p = 0;
+            }
+        }
+        for (int i = words * LONG_SIZE; i < bytes.remaining(); i++) {
+            bytes.put(from + i, (byte) (bytes.get(from + i) ^ key[i % key.length]));
+        }
+    }
+
+    static void XorScalar(ByteBuffer chunk, byte[] key) {
+        int from = chunk.position();
+        for (int i = 0; i < chunk.remaining(); i++) {
+            chunk.put(from + i, (byte) (chunk.get(from + i) ^ key[i % key.length]));
+        }
+    }
+}
@@ -0,0 +1,10 @@
+import ru.spbstu.pipeline.*;
+
+import java.nio.Buffer;
+
+/* Mediator that can also hand chunks out as buffers, so consumers able to read them skip
+ * the conversion to arrays. Kept identical in every module */
+public interface BufferMediator extends IMediator {
+    /* ByteBuffer, ShortBuffer or CharBuffer matching the mediator type, null past the last chunk */
+    Buffer getBuffer(int chunkId);
+}
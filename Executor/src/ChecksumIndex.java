@@ -0,0 +1,103 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/* Sidecar index of the chunks a chain wrote, kept at <output>.crc: a header naming the checksum, then
+ * per chunk its id, offset and length in the output and its checksum, all big-endian. The modules target
+ * Java 8, so CRC32C (JDK 9+, computed with CPU instructions) is reached by reflection, CRC32 takes its
+ * place on older JVMs. Kept identical in every module */
+public final class ChecksumIndex {
+    public enum Algorithm {
+        CRC32,
+        CRC32C;
+    }
+
+    public static final String SUFFIX = ".crc";
+    public static final int HEADER_SIZE = 8;
+    /* int chunkId, long offset, int length, int checksum */
+    public static final int RECORD_SIZE = 20;
+    private static final int MAGIC = 0x43524349;
+
+    private static final MethodHandle _newCrc32c;
+    private static final MethodHandle _updateCrc32c;
+
+    static {
+        MethodHandle newCrc32c = null;
+        MethodHandle updateCrc32c = null;
+        try {
+            Class<?> crc32c = Class.forName("java.util.zip.CRC32C");
+            newCrc32c = MethodHandles.publicLookup().findConstructor(crc32c, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Checksum.class));
+            updateCrc32c = MethodHandles.publicLookup().findVirtual(crc32c, "update",
+                    MethodType.methodType(void.class, ByteBuffer.class))
+                    .asType(MethodType.methodType(void.class, Checksum.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException e) {
+            newCrc32c = null;
+        }
+        _newCrc32c = newCrc32c;
+        _updateCrc32c = updateCrc32c;
+    }
+
+    private ChecksumIndex() {}
+
+    public static boolean IsAvailable(Algorithm algorithm) {
+        return algorithm == Algorithm.CRC32 || _newCrc32c != null;
+    }
+
+    /* Null if the algorithm is not available on this JVM */
+    public static Checksum NewChecksum(Algorithm algorithm) {
+        if (algorithm == Algorithm.CRC32) {
+            return new CRC32();
+        }
+        try {
+            return _newCrc32c == null ? null : (Checksum) _newCrc32c.invokeExact();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /* Checksum of the remaining bytes, read straight from arrays, heap and direct buffers alike */
+    public static int Compute(Checksum checksum, ByteBuffer bytes) {
+        checksum.reset();
+        if (checksum instanceof CRC32) {
+            ((CRC32) checksum).update(bytes.duplicate());
+        } else {
+            try {
+                _updateCrc32c.invokeExact(checksum, bytes.duplicate());
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return (int) checksum.getValue();
+    }
+
+    public static String PathOf(String output) {
+        return output + SUFFIX;
+    }
+
+    public static void WriteHeader(DataOutput index, Algorithm algorithm) throws IOException {
+        index.writeInt(MAGIC);
+        index.writeInt(algorithm.ordinal());
+    }
+
+    /* The algorithm named by the header at the start of index, null if it is not an index */
+    public static Algorithm ReadHeader(ByteBuffer index) {
+        if (index.remaining() < HEADER_SIZE || index.getInt(index.position()) != MAGIC) {
+            return null;
+        }
+        int algorithm = index.getInt(index.position() + Integer.BYTES);
+        return algorithm >= 0 && algorithm < Algorithm.values().length ? Algorithm.values()[algorithm] : null;
+    }
+
+    public static void WriteRecord(DataOutput index, int chunkId, long offset, int length, int checksum) throws IOException {
+        index.writeInt(chunkId);
+        index.writeLong(offset);
+        index.writeInt(length);
+        index.writeInt(checksum);
+    }
+}
@@ -0,0 +1,252 @@
+import ru.spbstu.pipeline.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.logging.Logger;
+import java.util.zip.Checksum;
+
+/* Hands every chunk on untouched and records its checksum in the sidecar index of the output it ends up
+ * in (see ChecksumIndex), so that output can be verified later without running the chain again. Offsets
+ * add up the chunks handed on, so the stage must feed the writer directly. ALGORITHM is CRC32C or CRC32 */
+public class Checksummer implements IExecutor, CopyableStage, SidecarStage {
+    private IMediator _prodMediator;
+    private ChunkRing _prodRing;
+    private static final int RING_CAPACITY = 64;
+    private static final int INDEX_BUFFER = 1 << 16;
+    private ChecksumIndex.Algorithm _algorithm;
+    private String _output;
+    private long _offset;
+    private final TYPE[] _outputTypes = {TYPE.BYTE};
+    private final TYPE[] _workingTypes = {TYPE.BYTE};
+    private final Logger _logger;
+    private volatile RC _result = RC.CODE_SUCCESS;
+
+    private ChunkRing _chunksToGive;
+    private ChunkRing _chunksToReceive;
+    private ChunkPool _pool = new ChunkPool();
+    private INotifier _consumerNotifier;
+
+    @Override
+    public TYPE[] getOutputTypes() {
+        return _outputTypes;
+    }
+
+    @Override
+    public IMediator getMediator(TYPE type) {
+        if (type != TYPE.BYTE) {
+            _logger.warning("Mediator of" + type.toString() + "is absent");
+            return null;
+        }
+        return new MediatorByte();
+    }
+
+    /* Chunks keep their owner: they go on as they came and the consumer releases them to the same pool */
+    class MediatorByte implements BufferMediator, ChunkPool.Source {
+        public byte[] getData(int chunkId) {
+            Object chunk = Handoff(chunkId);
+            if (chunk == null || ChunkPool.Owned(chunk) != null) {
+                return ChunkPool.Owned(chunk);
+            }
+            ByteBuffer buffer = ((ByteBuffer) chunk).duplicate();
+            byte[] bytes = _pool.Acquire(buffer.remaining());
+            buffer.get(bytes);
+            _pool.Release(chunk);
+            return bytes;
+        }
+
+        public ByteBuffer getBuffer(int chunkId) {
+            return ToBuffer(Handoff(chunkId));
+        }
+
+        public ChunkPool Pool() {
+            return _pool;
+        }
+    }
+
+    public Checksummer(Logger logger) {
+        _logger = logger;
+        _chunksToReceive = new ChunkRing(RING_CAPACITY, WaitStrategy.Kind.PARK);
+        _chunksToGive = new ChunkRing(RING_CAPACITY, WaitStrategy.Kind.PARK);
+    }
+
+    @Override
+    public RC setConfig(String s) {
+        if (s == null) {
+            _logger.warning("ERROR: Invalid config path in Checksummer");
+            return RC.CODE_INVALID_ARGUMENT;
+        }
+        else {
+            File test = new File(s);
+            if (!test.exists()) {
+                _logger.warning("ERROR: Config file reading error in Checksummer");
+                return RC.CODE_FAILED_TO_READ;
+            }
+        }
+
+        ConfigParser config = new ConfigParser(new ChecksummerGrammar());
+        RC error;
+        if ((error = config.SetFile(s)) != RC.CODE_SUCCESS) {
+            _logger.warning("ERROR: Config reading error in Checksummer Config Parser");
+            return error;
+        }
+        if ((error = config.ParseConfig()) != RC.CODE_SUCCESS) {
+            _logger.warning("ERROR: Config parsing error in Checksummer Config Parser");
+            return error;
+        }
+        if ((error = config.CheckConfig()) != RC.CODE_SUCCESS) {
+            _logger.warning("ERROR: Invalid config error in Checksummer Config Parser");
+            return error;
+        }
+
+        try {
+            _algorithm = ChecksumIndex.Algorithm.valueOf(config.GetParameter(ChecksummerTags.ALGORITHM.toString()).trim());
+        } catch (IllegalArgumentException e) {
+            _logger.warning("ERROR: Invalid params(Algorithm) in Checksummer config");
+            return RC.CODE_CONFIG_SEMANTIC_ERROR;
+        }
+        if (!ChecksumIndex.IsAvailable(_algorithm)) {
+            _logger.warning("CRC32C needs Java 9 or later, Checksummer falls back to CRC32");
+            _algorithm = ChecksumIndex.Algorithm.CRC32;
+        }
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public IPipelineStep Copy(Logger logger) {
+        Checksummer checksummer = new Checksummer(logger);
+        checksummer._algorithm = _algorithm;
+        return checksummer;
+    }
+
+    @Override
+    public void SetOutputPath(String output) {
+        _output = output;
+    }
+
+    @Override
+    public RC setProducer(IProducer producer) {
+        if (producer == null) {
+            _logger.warning("ERROR: Wrong producer in Checksummer");
+            return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
+        }
+        TYPE[] producerTypes = producer.getOutputTypes();
+        for (TYPE workingType : _workingTypes) {
+            for (TYPE producerType : producerTypes) {
+                if (workingType == producerType) {
+                    _prodMediator = producer.getMediator(workingType);
+                    if (_prodMediator instanceof ChunkRing.Source) {
+                        _prodRing = ((ChunkRing.Source) _prodMediator).Ring();
+                    }
+                    if (ChunkPool.Of(_prodMediator) != null) {
+                        _pool = ChunkPool.Of(_prodMediator);
+                    }
+                    return RC.CODE_SUCCESS;
+                }
+            }
+        }
+
+        _logger.warning("No compatibility with producer");
+        return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
+    }
+
+    private Object Handoff(int chunkId) {
+        Object chunk = _chunksToGive.Take(chunkId);
+        if (chunk != null) {
+            ChunkEvents.Emit(ChunkEvents.Kind.HANDOFF, "Checksummer", chunkId, ToBuffer(chunk).remaining());
+        }
+        return chunk;
+    }
+
+    private static ByteBuffer ToBuffer(Object chunk) {
+        return chunk == null || chunk instanceof ByteBuffer ? (ByteBuffer) chunk : ByteBuffer.wrap((byte[]) chunk);
+    }
+
+    class ChecksummerNotifier implements INotifier {
+        @Override
+        public RC notify(int chunkId) {
+            if (_prodRing != null) {
+                return RC.CODE_SUCCESS;
+            }
+            if (!_chunksToReceive.Put(chunkId, null)) {
+                return RC.CODE_SYNCHRONIZATION_ERROR;
+            }
+            return RC.CODE_SUCCESS;
+        }
+    }
+
+    @Override
+    public RC addNotifier(INotifier iNotifier) {
+        _consumerNotifier = iNotifier;
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public INotifier getNotifier() {
+        return new ChecksummerNotifier();
+    }
+
+    public RC getResult() {
+        return _result;
+    }
+
+    @Override
+    public void run() {
+        RC result;
+        if (_output == null) {
+            _logger.warning("ERROR: No output to keep the index of Checksummer next to");
+            result = RC.CODE_INVALID_OUTPUT_STREAM;
+        } else {
+            try (DataOutputStream index = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(ChecksumIndex.PathOf(_output)), INDEX_BUFFER))) {
+                ChecksumIndex.WriteHeader(index, _algorithm);
+                result = Run(index);
+            } catch (IOException e) {
+                _logger.warning("ERROR: Index writing error in Checksummer");
+                result = RC.CODE_FAILED_TO_WRITE;
+            }
+        }
+        if (result != RC.CODE_SUCCESS) {
+            _logger.warning(result.toString());
+            _result = result;
+        }
+    }
+
+    private RC Run(DataOutputStream index) throws IOException {
+        ChunkRing source = _prodRing != null ? _prodRing : _chunksToReceive;
+        Checksum checksum = ChecksumIndex.NewChecksum(_algorithm);
+        while (true) {
+            if (!source.Await()) {
+                return RC.CODE_SYNCHRONIZATION_ERROR;
+            }
+
+            int chunkId = source.HeadId();
+            Object chunk = TakeChunk(chunkId);
+            if (chunk != null) {
+                Object event = ChunkEvents.Begin(ChunkEvents.Kind.TRANSFORM);
+                ByteBuffer bytes = ToBuffer(chunk);
+                ChecksumIndex.WriteRecord(index, chunkId, _offset, bytes.remaining(), ChecksumIndex.Compute(checksum, bytes));
+                _offset += bytes.remaining();
+                ChunkEvents.Commit(event, "Checksummer", chunkId, bytes.remaining());
+                if (!_chunksToGive.Put(chunkId, chunk)) {
+                    return RC.CODE_SYNCHRONIZATION_ERROR;
+                }
+            }
+            RC result;
+            if ((result = _consumerNotifier.notify(chunkId)) != RC.CODE_SUCCESS || chunk == null) {
+                return result;
+            }
+        }
+    }
+
+    private Object TakeChunk(int chunkId) {
+        if (_prodRing != null) {
+            return _prodRing.Take(chunkId);
+        }
+        _chunksToReceive.Take(chunkId);
+        return _prodMediator.getData(chunkId);
+    }
+}
@@ -0,0 +1,14 @@
+import ru.spbstu.pipeline.BaseGrammar;
+
+public class ChecksummerGrammar extends BaseGrammar {
+    public ChecksummerGrammar() {
+        super(Grammar());
+    }
+    public static String[] Grammar(){
+        ChecksummerTags[] tags = ChecksummerTags.values();
+        String[] grammar = new String[tags.length];
+        for(int i = 0; i < tags.length; i++)
+            grammar[i] = tags[i].toString();
+        return grammar;
+    }
+}
\ No newline at end of file
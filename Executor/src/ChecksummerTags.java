@@ -0,0 +1,3 @@
+public enum ChecksummerTags {
+    ALGORITHM;
+}
@@ -0,0 +1,132 @@
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* Chunk lifecycle events for Java Flight Recorder, each carrying chunkId, stage and bytes.
+ * The modules target Java 8, so the event types are built at run time through jdk.jfr.EventFactory
+ * (JDK 11+, 8u272+). Without JFR, or while an event is not enabled in the recording, Begin() returns
+ * null and nothing is allocated. Kept identical in every stage module */
+public final class ChunkEvents {
+    public enum Kind {
+        CREATED("ChunkCreated", "Chunk Created"),
+        HANDOFF("ChunkHandoff", "Chunk Handoff"),
+        TRANSFORM("ChunkTransform", "Chunk Transform"),
+        FLUSH("ChunkFlush", "Chunk Flush");
+
+        private final String _name;
+        private final String _label;
+
+        Kind(String name, String label) {
+            _name = name;
+            _label = label;
+        }
+    }
+
+    private static final String PREFIX = "koloskov.pipeline.";
+    private static final int CHUNK_ID = 0;
+    private static final int STAGE = 1;
+    private static final int BYTES = 2;
+
+    private static final Object[] _factories = new Object[Kind.values().length];
+    private static final MethodHandle[] _isEnabled = new MethodHandle[Kind.values().length];
+    private static MethodHandle _newEvent;
+    private static MethodHandle _begin;
+    private static MethodHandle _set;
+    private static MethodHandle _commit;
+
+    static {
+        try {
+            Register();
+        } catch (Throwable e) {
+            Arrays.fill(_isEnabled, null);
+        }
+    }
+
+    private ChunkEvents() {}
+
+    /* Starts a timed event, null if it is not recorded */
+    public static Object Begin(Kind kind) {
+        MethodHandle isEnabled = _isEnabled[kind.ordinal()];
+        try {
+            if (isEnabled == null || !(boolean) isEnabled.invokeExact()) {
+                return null;
+            }
+            Object event = _newEvent.invoke(_factories[kind.ordinal()]);
+            _begin.invoke(event);
+            return event;
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /* Ends and records an event started by Begin(), does nothing for null */
+    public static void Commit(Object event, String stage, int chunkId, long bytes) {
+        if (event == null) {
+            return;
+        }
+        try {
+            _set.invoke(event, CHUNK_ID, (Object) chunkId);
+            _set.invoke(event, STAGE, (Object) stage);
+            _set.invoke(event, BYTES, (Object) bytes);
+            _commit.invoke(event);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    /* Instant event */
+    public static void Emit(Kind kind, String stage, int chunkId, long bytes) {
+        Commit(Begin(kind), stage, chunkId, bytes);
+    }
+
+    private static void Register() throws Throwable {
+        Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+        Class<?> eventClass = Class.forName("jdk.jfr.Event");
+        Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType");
+        Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+        Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+        Constructor<?> annotation = annotationClass.getConstructor(Class.class, Object.class);
+        Constructor<?> descriptor = descriptorClass.getConstructor(Class.class, String.class, List.class);
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+        List<Object> fields = new ArrayList<>();
+        fields.add(descriptor.newInstance(int.class, "chunkId", Annotations(annotation, "Label", "Chunk Id")));
+        fields.add(descriptor.newInstance(String.class, "stage", Annotations(annotation, "Label", "Stage")));
+        fields.add(descriptor.newInstance(long.class, "bytes",
+                Annotations(annotation, "Label", "Bytes", "DataAmount", "BYTES")));
+
+        MethodHandle create = lookup.findStatic(factoryClass, "create",
+                MethodType.methodType(factoryClass, List.class, List.class));
+        MethodHandle getEventType = lookup.findVirtual(factoryClass, "getEventType",
+                MethodType.methodType(eventTypeClass));
+        MethodHandle isEnabled = lookup.findVirtual(eventTypeClass, "isEnabled", MethodType.methodType(boolean.class));
+        for (Kind kind : Kind.values()) {
+            List<Object> annotations = Annotations(annotation, "Name", PREFIX + kind._name, "Label", kind._label);
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] {"Pipeline"}));
+            annotations.add(annotation.newInstance(Class.forName("jdk.jfr.StackTrace"), false));
+            Object factory = create.invoke(annotations, fields);
+            _factories[kind.ordinal()] = factory;
+            _isEnabled[kind.ordinal()] = isEnabled.bindTo(getEventType.invoke(factory));
+        }
+
+        _newEvent = lookup.findVirtual(factoryClass, "newEvent", MethodType.methodType(eventClass));
+        _begin = lookup.findVirtual(eventClass, "begin", MethodType.methodType(void.class));
+        _set = lookup.findVirtual(eventClass, "set", MethodType.methodType(void.class, int.class, Object.class));
+        _commit = lookup.findVirtual(eventClass, "commit", MethodType.methodType(void.class));
+    }
+
+    /* AnnotationElements from pairs of a jdk.jfr annotation simple name and its value */
+    @SuppressWarnings("unchecked")
+    private static List<Object> Annotations(Constructor<?> annotation, String... pairs) throws ReflectiveOperationException {
+        List<Object> annotations = new ArrayList<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            Class<? extends Annotation> type = (Class<? extends Annotation>) Class.forName("jdk.jfr." + pairs[i]);
+            annotations.add(annotation.newInstance(type, pairs[i + 1]));
+        }
+        return annotations;
+    }
+}
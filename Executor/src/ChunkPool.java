@@ -0,0 +1,197 @@
+import ru.spbstu.pipeline.IMediator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.ShortBuffer;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Pool of chunks shared by the stages of one pipeline, heap ByteBuffers over whole arrays or direct
+ * ByteBuffers for chunks kept off-heap. The head stage creates it, or takes the one of the plan it was
+ * copied from so every pipeline of that plan reuses the same chunks, and every stage passes it on through
+ * its byte mediator, so a chunk taken by the last consumer goes back to the pool it came from. An array is
+ * pooled together with its buffer, so stages handing buffers on never wrap one, only arrays released bare
+ * by byte[] consumers are wrapped again. Chunks are pooled by size, which takes only a few classes per
+ * pipeline (the chunk size and its padded size). Kept identical in every module */
+public class ChunkPool {
+    /* Implemented by mediators handing out chunks that their consumer may release to the pool */
+    public interface Source {
+        ChunkPool Pool();
+    }
+
+    /* A chunk handed to several consumers, going back to the pool once all their views are released */
+    private static class Shared {
+        final Object _chunk;
+        final AtomicInteger _views;
+
+        Shared(Object chunk, int views) {
+            _chunk = chunk;
+            _views = new AtomicInteger(views);
+        }
+    }
+
+    /* Free chunks of one size, buffers over arrays or direct buffers */
+    private static class SizeClass {
+        final int _size;
+        final boolean _isDirect;
+        final ArrayBlockingQueue<ByteBuffer> _free = new ArrayBlockingQueue<>(CLASS_CAPACITY);
+
+        SizeClass(int size, boolean isDirect) {
+            _size = size;
+            _isDirect = isDirect;
+        }
+    }
+
+    private static final int SIZE_CLASSES = 4;
+    private static final int CLASS_CAPACITY = 1024;
+
+    private final SizeClass[] _sizeClasses = new SizeClass[SIZE_CLASSES];
+    private volatile int _classes;
+    private final IdentityHashMap<Object, Shared> _shared = new IdentityHashMap<>();
+    private volatile boolean _isSharing;
+
+    public static ChunkPool Of(IMediator mediator) {
+        return mediator instanceof Source ? ((Source) mediator).Pool() : null;
+    }
+
+    /* The array behind a chunk its consumer owns: the chunk itself or a writable view over all of an
+     * array. Null for views that share memory with something else, e.g. mapped or read-only slices */
+    public static byte[] Owned(Object chunk) {
+        if (chunk instanceof byte[]) {
+            return (byte[]) chunk;
+        }
+        if (chunk instanceof ByteBuffer) {
+            ByteBuffer buffer = (ByteBuffer) chunk;
+            if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 &&
+                    buffer.remaining() == buffer.array().length) {
+                return buffer.array();
+            }
+        }
+        return null;
+    }
+
+    /* A direct chunk its consumer owns. Views that are read-only (mapped or shared slices) are not owned */
+    public static ByteBuffer OwnedDirect(Object chunk) {
+        if (chunk instanceof ByteBuffer && ((ByteBuffer) chunk).isDirect() && !((ByteBuffer) chunk).isReadOnly()) {
+            return (ByteBuffer) chunk;
+        }
+        return null;
+    }
+
+    /* A read-only view of a chunk of any type, which no consumer owns. Arrays are wrapped */
+    public static Object ReadOnly(Object chunk) {
+        if (chunk instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) chunk).asReadOnlyBuffer();
+        }
+        if (chunk instanceof short[]) {
+            return ShortBuffer.wrap((short[]) chunk).asReadOnlyBuffer();
+        }
+        if (chunk instanceof char[]) {
+            return CharBuffer.wrap((char[]) chunk).asReadOnlyBuffer();
+        }
+        if (chunk instanceof ByteBuffer) {
+            return ((ByteBuffer) chunk).asReadOnlyBuffer();
+        }
+        if (chunk instanceof ShortBuffer) {
+            return ((ShortBuffer) chunk).asReadOnlyBuffer();
+        }
+        if (chunk instanceof CharBuffer) {
+            return ((CharBuffer) chunk).asReadOnlyBuffer();
+        }
+        return chunk;
+    }
+
+    /* One read-only view of chunk per consumer. The chunk goes back to the pool when the last view is released */
+    public Object[] Share(Object chunk, int consumers) {
+        Shared shared = new Shared(chunk, consumers);
+        Object[] views = new Object[consumers];
+        synchronized (_shared) {
+            for (int i = 0; i < consumers; i++) {
+                views[i] = ReadOnly(chunk);
+                _shared.put(views[i], shared);
+            }
+        }
+        _isSharing = true;
+        return views;
+    }
+
+    /* An array of exactly size bytes with arbitrary contents, allocated only if none is free */
+    public byte[] Acquire(int size) {
+        return AcquireBuffer(size).array();
+    }
+
+    /* A cleared big-endian buffer over a whole array of exactly size bytes, allocated only if none is free */
+    public ByteBuffer AcquireBuffer(int size) {
+        ArrayBlockingQueue<ByteBuffer> free = Free(size, false, false);
+        ByteBuffer chunk = free == null ? null : free.poll();
+        return chunk != null ? chunk : ByteBuffer.allocate(size);
+    }
+
+    /* A cleared big-endian direct buffer of exactly size bytes with arbitrary contents, allocated only if none is free */
+    public ByteBuffer AcquireDirect(int size) {
+        ArrayBlockingQueue<ByteBuffer> free = Free(size, true, false);
+        ByteBuffer chunk = free == null ? null : free.poll();
+        return chunk != null ? chunk : ByteBuffer.allocateDirect(size);
+    }
+
+    /* Called with a byte[], an owned ByteBuffer (heap or direct) or a shared view once nothing refers to it
+     * any more. Chunks beyond the pool capacity are left to GC, anything else is ignored */
+    public void Release(Object chunk) {
+        if (_isSharing) {
+            Shared shared;
+            synchronized (_shared) {
+                shared = _shared.remove(chunk);
+            }
+            if (shared != null) {
+                if (shared._views.decrementAndGet() == 0) {
+                    Release(shared._chunk);
+                }
+                return;
+            }
+        }
+        ByteBuffer buffer = OwnedDirect(chunk);
+        byte[] owned = buffer == null ? Owned(chunk) : null;
+        if (buffer == null && owned == null) {
+            return;
+        }
+        ArrayBlockingQueue<ByteBuffer> free = buffer != null ?
+                Free(buffer.capacity(), true, true) : Free(owned.length, false, true);
+        if (free == null) {
+            return;
+        }
+        if (buffer == null) {
+            buffer = chunk instanceof ByteBuffer ? (ByteBuffer) chunk : ByteBuffer.wrap(owned);
+        }
+        buffer.clear();
+        free.offer(buffer.order(ByteOrder.BIG_ENDIAN));
+    }
+
+    private ArrayBlockingQueue<ByteBuffer> Free(int size, boolean isDirect, boolean isCreated) {
+        for (int i = 0, classes = _classes; i < classes; i++) {
+            SizeClass sizeClass = _sizeClasses[i];
+            if (sizeClass._size == size && sizeClass._isDirect == isDirect) {
+                return sizeClass._free;
+            }
+        }
+        return isCreated ? AddClass(size, isDirect) : null;
+    }
+
+    /* Classes are published by the volatile write of _classes, after the slot is filled */
+    private synchronized ArrayBlockingQueue<ByteBuffer> AddClass(int size, boolean isDirect) {
+        int classes = _classes;
+        for (int i = 0; i < classes; i++) {
+            SizeClass sizeClass = _sizeClasses[i];
+            if (sizeClass._size == size && sizeClass._isDirect == isDirect) {
+                return sizeClass._free;
+            }
+        }
+        if (classes == SIZE_CLASSES) {
+            return null;
+        }
+        _sizeClasses[classes] = new SizeClass(size, isDirect);
+        _classes = classes + 1;
+        return _sizeClasses[classes]._free;
+    }
+}
@@ -0,0 +1,4 @@
+public enum CodecMode {
+    STREAM  /* one zlib stream over all chunks, coded in order */,
+    BLOCKS  /* a frame of its own per chunk, coded on WORKER_COUNT threads */;
+}
@@ -0,0 +1,299 @@
+import ru.spbstu.pipeline.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+/* Plumbing shared by the zlib stages. Their products have sizes of their own, so they are numbered
+ * apart from the incoming chunks and empty ones are not handed on at all. In BLOCKS mode a frame is
+ * the deflated length and the chunk length as big-endian ints, then a zlib stream of the chunk alone */
+public abstract class CodecStage implements IExecutor, CopyableStage {
+    static final int FRAME_HEADER = 8;
+    private static final int RING_CAPACITY = 64;
+
+    private IMediator _prodMediator;
+    private ChunkRing _prodRing;
+    private final TYPE[] _outputTypes = {TYPE.BYTE};
+    private final TYPE[] _workingTypes = {TYPE.BYTE};
+    protected final Logger _logger;
+    private volatile RC _result = RC.CODE_SUCCESS;
+    protected CodecMode _mode;
+    protected int _workerCount;
+
+    private final ChunkRing _chunksToGive;
+    private final ChunkRing _chunksToReceive;
+    private ChunkPool _pool;
+    private INotifier _consumerNotifier;
+    private int _productId;
+    private final ThreadLocal<byte[]> _scratch = ThreadLocal.withInitial(() -> new byte[0]);
+
+    protected CodecStage(Logger logger) {
+        _logger = logger;
+        _chunksToReceive = new ChunkRing(RING_CAPACITY, WaitStrategy.Kind.PARK);
+        _chunksToGive = new ChunkRing(RING_CAPACITY, WaitStrategy.Kind.PARK);
+    }
+
+    /* Work for one chunk, each call yielding one product, empty if there is nothing to hand on yet.
+     * Called on the run thread in chunk order, with null past the last chunk. In STREAM mode the calls
+     * run there too, right away, in BLOCKS mode they may run on workers */
+    protected abstract ArrayList<Callable<byte[]>> Frames(Object chunk) throws DataFormatException;
+
+    /* Codecs hold native memory, so they live only while the stage runs */
+    protected abstract void Open();
+
+    protected abstract void Close();
+
+    protected abstract String Name();
+
+    @Override
+    public TYPE[] getOutputTypes() {
+        return _outputTypes;
+    }
+
+    @Override
+    public IMediator getMediator(TYPE type) {
+        if (type != TYPE.BYTE) {
+            _logger.warning("Mediator of" + type.toString() + "is absent");
+            return null;
+        }
+        return new MediatorByte();
+    }
+
+    class MediatorByte implements BufferMediator {
+        public byte[] getData(int chunkId) {
+            return Handoff(chunkId);
+        }
+
+        public ByteBuffer getBuffer(int chunkId) {
+            byte[] product = Handoff(chunkId);
+            return product == null ? null : ByteBuffer.wrap(product);
+        }
+    }
+
+    private byte[] Handoff(int chunkId) {
+        byte[] product = (byte[]) _chunksToGive.Take(chunkId);
+        if (product != null) {
+            ChunkEvents.Emit(ChunkEvents.Kind.HANDOFF, Name(), chunkId, product.length);
+        }
+        return product;
+    }
+
+    /* zlib's compressBound(), enough for any chunk at the default strategy */
+    static long Bound(long length) {
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
+    }
+
+    /* Mode and worker count, parsed the same way by every zlib stage */
+    protected RC SetMode(String mode, String workerCount) {
+        try {
+            _mode = CodecMode.valueOf(mode.trim());
+        } catch (IllegalArgumentException e) {
+            _logger.warning("ERROR: Invalid params(Mode) in " + Name() + " config");
+            return RC.CODE_CONFIG_SEMANTIC_ERROR;
+        }
+        _workerCount = Integer.parseInt(workerCount);
+        if (_workerCount < 1) {
+            _logger.warning("ERROR: Invalid params(WorkerCount) in " + Name() + " config");
+            return RC.CODE_CONFIG_SEMANTIC_ERROR;
+        }
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public RC setProducer(IProducer producer) {
+        if (producer == null) {
+            _logger.warning("ERROR: Wrong producer in " + Name());
+            return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
+        }
+        TYPE[] producerTypes = producer.getOutputTypes();
+        for (TYPE workingType : _workingTypes) {
+            for (TYPE producerType : producerTypes) {
+                if (workingType == producerType) {
+                    _prodMediator = producer.getMediator(workingType);
+                    if (_prodMediator instanceof ChunkRing.Source) {
+                        _prodRing = ((ChunkRing.Source) _prodMediator).Ring();
+                    }
+                    _pool = ChunkPool.Of(_prodMediator);
+                    return RC.CODE_SUCCESS;
+                }
+            }
+        }
+
+        _logger.warning("No compatibility with producer");
+        return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
+    }
+
+    /* The bytes of a chunk as an array range, since Java 8 codecs take arrays only. Arrays and heap buffers
+     * are used as they are, other views (mapped, direct, read-only) are copied to a scratch array of the thread */
+    protected ByteBuffer Heap(Object chunk) {
+        if (chunk instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) chunk);
+        }
+        ByteBuffer buffer = (ByteBuffer) chunk;
+        if (buffer.hasArray()) {
+            return buffer;
+        }
+        byte[] scratch = _scratch.get();
+        if (scratch.length < buffer.remaining()) {
+            scratch = new byte[buffer.remaining()];
+            _scratch.set(scratch);
+        }
+        buffer.duplicate().get(scratch, 0, buffer.remaining());
+        return ByteBuffer.wrap(scratch, 0, buffer.remaining());
+    }
+
+    /* Gives a chunk back to the producer's pool once the codec is done with it */
+    protected void Release(Object chunk) {
+        if (_pool != null) {
+            _pool.Release(chunk);
+        }
+    }
+
+    class CodecNotifier implements INotifier {
+        @Override
+        public RC notify(int chunkId) {
+            if (_prodRing != null) {
+                return RC.CODE_SUCCESS;
+            }
+            if (!_chunksToReceive.Put(chunkId, null)) {
+                return RC.CODE_SYNCHRONIZATION_ERROR;
+            }
+            return RC.CODE_SUCCESS;
+        }
+    }
+
+    @Override
+    public RC addNotifier(INotifier iNotifier) {
+        _consumerNotifier = iNotifier;
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public INotifier getNotifier() {
+        return new CodecNotifier();
+    }
+
+    public RC getResult() {
+        return _result;
+    }
+
+    @Override
+    public void run() {
+        ChunkRing source = _prodRing != null ? _prodRing : _chunksToReceive;
+        ExecutorService workers = _mode == CodecMode.BLOCKS && _workerCount > 1 ?
+                Executors.newFixedThreadPool(_workerCount, task -> {
+                    Thread worker = new Thread(task, Name() + " worker");
+                    worker.setDaemon(true);
+                    return worker;
+                }) : null;
+        RC result;
+        Open();
+        try {
+            result = Run(source, workers);
+        } finally {
+            if (workers != null) {
+                workers.shutdownNow();
+            }
+            Close();
+        }
+        if (result != RC.CODE_SUCCESS) {
+            _logger.warning(result.toString());
+            _result = result;
+        }
+    }
+
+    /* Products are handed on strictly in the order of their chunks, a window of in-flight futures
+     * serving as the reorder buffer, so the output ring keeps a single producer */
+    private RC Run(ChunkRing source, ExecutorService workers) {
+        ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        int window = 2 * _workerCount;
+        while (true) {
+            if (!source.Await()) {
+                return RC.CODE_SYNCHRONIZATION_ERROR;
+            }
+            int chunkId = source.HeadId();
+            Object chunk = TakeChunk(chunkId);
+
+            ArrayList<Callable<byte[]>> frames;
+            try {
+                frames = Frames(chunk);
+            } catch (DataFormatException e) {
+                _logger.warning("ERROR: Corrupt input in " + Name() + ": " + e.getMessage());
+                return RC.CODE_INVALID_INPUT_STREAM;
+            }
+            RC result;
+            for (Callable<byte[]> work : frames) {
+                Callable<byte[]> frame = () -> {
+                    Object event = ChunkEvents.Begin(ChunkEvents.Kind.TRANSFORM);
+                    byte[] product = work.call();
+                    ChunkEvents.Commit(event, Name(), chunkId, product.length);
+                    return product;
+                };
+                if (workers != null) {
+                    inFlight.add(workers.submit(frame));
+                } else {
+                    FutureTask<byte[]> task = new FutureTask<>(frame);
+                    task.run();
+                    inFlight.add(task);
+                }
+                if ((result = Drain(inFlight, window)) != RC.CODE_SUCCESS) {
+                    return result;
+                }
+            }
+
+            if (chunk == null) {
+                if ((result = Drain(inFlight, 0)) != RC.CODE_SUCCESS) {
+                    return result;
+                }
+                return _consumerNotifier.notify(_productId);
+            }
+        }
+    }
+
+    /* Hands on the finished products at the head of the window, waiting for the oldest while more than window are in flight */
+    private RC Drain(ArrayDeque<Future<byte[]>> inFlight, int window) {
+        while (!inFlight.isEmpty() && (inFlight.size() > window || inFlight.peek().isDone())) {
+            byte[] product;
+            try {
+                product = inFlight.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return RC.CODE_SYNCHRONIZATION_ERROR;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof DataFormatException) {
+                    _logger.warning("ERROR: Corrupt input in " + Name() + ": " + e.getCause().getMessage());
+                    return RC.CODE_INVALID_INPUT_STREAM;
+                }
+                return RC.CODE_SYNCHRONIZATION_ERROR;
+            }
+            if (product.length == 0) {
+                continue;
+            }
+
+            RC result;
+            if (!_chunksToGive.Put(_productId, product)) {
+                return RC.CODE_SYNCHRONIZATION_ERROR;
+            }
+            if ((result = _consumerNotifier.notify(_productId++)) != RC.CODE_SUCCESS) {
+                return result;
+            }
+        }
+        return RC.CODE_SUCCESS;
+    }
+
+    private Object TakeChunk(int chunkId) {
+        if (_prodRing != null) {
+            return _prodRing.Take(chunkId);
+        }
+        _chunksToReceive.Take(chunkId);
+        return _prodMediator.getData(chunkId);
+    }
+}
@@ -0,0 +1,186 @@
+import ru.spbstu.pipeline.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+/* Deflates the chunks of the chain. In STREAM mode they make up one zlib stream, as if the input were
+ * compressed whole, in BLOCKS mode every chunk becomes a frame (see CodecStage) that inflates on its own,
+ * so frames are deflated on WORKER_COUNT threads. LEVEL is 0..9 or -1 for the zlib default,
+ * STRATEGY one of DEFAULT, FILTERED, HUFFMAN_ONLY */
+public class Compressor extends CodecStage {
+    private int _level;
+    private int _strategy;
+    private Deflater _deflater;
+    private ArrayBlockingQueue<Deflater> _deflaters;
+    private byte[] _output = new byte[0];
+
+    public Compressor(Logger logger) {
+        super(logger);
+    }
+
+    @Override
+    public RC setConfig(String s) {
+        if (s == null) {
+            _logger.warning("ERROR: Invalid config path in Compressor");
+            return RC.CODE_INVALID_ARGUMENT;
+        }
+        else {
+            File test = new File(s);
+            if (!test.exists()) {
+                _logger.warning("ERROR: Config file reading error in Compressor");
+                return RC.CODE_FAILED_TO_READ;
+            }
+        }
+
+        ConfigParser config = new ConfigParser(new CompressorGrammar());
+        RC error;
+        if ((error = config.SetFile(s)) != RC.CODE_SUCCESS) {
+            _logger.warning("ERROR: Config reading error in Compressor Config Parser");
+            return error;
+        }
+        if ((error = config.ParseConfig()) != RC.CODE_SUCCESS) {
+            _logger.warning("ERROR: Config parsing error in Compressor Config Parser");
+            return error;
+        }
+        if ((error = config.CheckConfig()) != RC.CODE_SUCCESS) {
+            _logger.warning("ERROR: Invalid config error in Compressor Config Parser");
+            return error;
+        }
+
+        _level = Integer.parseInt(config.GetParameter(CompressorTags.LEVEL.toString()));
+        if (_level < Deflater.DEFAULT_COMPRESSION || _level > Deflater.BEST_COMPRESSION) {
+            _logger.warning("ERROR: Invalid params(Level) in Compressor config");
+            return RC.CODE_CONFIG_SEMANTIC_ERROR;
+        }
+        switch (config.GetParameter(CompressorTags.STRATEGY.toString()).trim()) {
+            case "DEFAULT":
+                _strategy = Deflater.DEFAULT_STRATEGY;
+                break;
+            case "FILTERED":
+                _strategy = Deflater.FILTERED;
+                break;
+            case "HUFFMAN_ONLY":
+                _strategy = Deflater.HUFFMAN_ONLY;
+                break;
+            default:
+                _logger.warning("ERROR: Invalid params(Strategy) in Compressor config");
+                return RC.CODE_CONFIG_SEMANTIC_ERROR;
+        }
+        return SetMode(config.GetParameter(CompressorTags.MODE.toString()),
+                config.GetParameter(CompressorTags.WORKER_COUNT.toString()));
+    }
+
+    @Override
+    public IPipelineStep Copy(Logger logger) {
+        Compressor compressor = new Compressor(logger);
+        compressor._level = _level;
+        compressor._strategy = _strategy;
+        compressor._mode = _mode;
+        compressor._workerCount = _workerCount;
+        return compressor;
+    }
+
+    @Override
+    protected String Name() {
+        return "Compressor";
+    }
+
+    @Override
+    protected void Open() {
+        if (_mode == CodecMode.STREAM) {
+            _deflater = NewDeflater();
+            return;
+        }
+        _deflaters = new ArrayBlockingQueue<>(_workerCount);
+        for (int i = 0; i < _workerCount; i++) {
+            _deflaters.add(NewDeflater());
+        }
+    }
+
+    @Override
+    protected void Close() {
+        if (_deflater != null) {
+            _deflater.end();
+        }
+        if (_deflaters != null) {
+            for (Deflater deflater : _deflaters) {
+                deflater.end();
+            }
+        }
+    }
+
+    private Deflater NewDeflater() {
+        Deflater deflater = new Deflater(_level);
+        deflater.setStrategy(_strategy);
+        return deflater;
+    }
+
+    @Override
+    protected ArrayList<Callable<byte[]>> Frames(Object chunk) {
+        ArrayList<Callable<byte[]>> frames = new ArrayList<>(1);
+        if (_mode == CodecMode.STREAM) {
+            frames.add(() -> Deflate(chunk));
+        } else if (chunk != null) {
+            frames.add(() -> DeflateFrame(chunk));
+        }
+        return frames;
+    }
+
+    /* Whatever the stream has ready after the chunk, its tail past the last chunk */
+    private byte[] Deflate(Object chunk) {
+        int size = 0;
+        if (chunk == null) {
+            _deflater.finish();
+            while (!_deflater.finished()) {
+                size = Deflate(size);
+            }
+            return Arrays.copyOf(_output, size);
+        }
+
+        ByteBuffer input = Heap(chunk);
+        _deflater.setInput(input.array(), input.arrayOffset() + input.position(), input.remaining());
+        while (!_deflater.needsInput()) {
+            size = Deflate(size);
+        }
+        Release(chunk);
+        return Arrays.copyOf(_output, size);
+    }
+
+    private int Deflate(int size) {
+        if (size == _output.length) {
+            _output = Arrays.copyOf(_output, Math.max(2 * _output.length, 4096));
+        }
+        return size + _deflater.deflate(_output, size, _output.length - size);
+    }
+
+    private byte[] DeflateFrame(Object chunk) throws InterruptedException {
+        Deflater deflater = _deflaters.take();
+        try {
+            deflater.reset();
+            ByteBuffer input = Heap(chunk);
+            int length = input.remaining();
+            deflater.setInput(input.array(), input.arrayOffset() + input.position(), length);
+            deflater.finish();
+
+            byte[] frame = new byte[FRAME_HEADER + (int) Bound(length)];
+            int size = FRAME_HEADER;
+            while (!deflater.finished()) {
+                if (size == frame.length) {
+                    frame = Arrays.copyOf(frame, 2 * frame.length);
+                }
+                size += deflater.deflate(frame, size, frame.length - size);
+            }
+            Release(chunk);
+            ByteBuffer.wrap(frame).putInt(size - FRAME_HEADER).putInt(length);
+            return size == frame.length ? frame : Arrays.copyOf(frame, size);
+        } finally {
+            _deflaters.add(deflater);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+import ru.spbstu.pipeline.BaseGrammar;
+
+public class CompressorGrammar extends BaseGrammar {
+    public CompressorGrammar() {
+        super(Grammar());
+    }
+    public static String[] Grammar(){
+        CompressorTags[] tags = CompressorTags.values();
+        String[] grammar = new String[tags.length];
+        for(int i = 0; i < tags.length; i++)
+            grammar[i] = tags[i].toString();
+        return grammar;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,6 @@
+public enum CompressorTags {
+    LEVEL,
+    STRATEGY,
+    MODE,
+    WORKER_COUNT;
+}
@@ -0,0 +1,229 @@
+import ru.spbstu.pipeline.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/* Inflates what a Compressor of the same MODE wrote, read back by the Reader of the next chain. Frames do
+ * not line up with the chunks read, so in BLOCKS mode they are cut out in order and inflated on
+ * WORKER_COUNT threads. The zeros the Reader pads the last chunk with are skipped. A frame header is
+ * trusted only up to MAX_FRAME_SIZE inflated bytes, so a corrupt one fails the stage instead of
+ * allocating whatever it claims */
+public class Decompressor extends CodecStage {
+    private static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private int _maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private Inflater _inflater;
+    private ArrayBlockingQueue<Inflater> _inflaters;
+    private byte[] _output = new byte[0];
+    private ByteBuffer _carry = ByteBuffer.allocate(0);
+    private boolean _isPadding;
+
+    public Decompressor(Logger logger) {
+        super(logger);
+    }
+
+    @Override
+    public RC setConfig(String s) {
+        if (s == null) {
+            _logger.warning("ERROR: Invalid config path in Decompressor");
+            return RC.CODE_INVALID_ARGUMENT;
+        }
+        else {
+            File test = new File(s);
+            if (!test.exists()) {
+                _logger.warning("ERROR: Config file reading error in Decompressor");
+                return RC.CODE_FAILED_TO_READ;
+            }
+        }
+
+        ConfigParser config = new ConfigParser(new DecompressorGrammar());
+        RC error;
+        if ((error = config.SetFile(s)) != RC.CODE_SUCCESS) {
+            _logger.warning("ERROR: Config reading error in Decompressor Config Parser");
+            return error;
+        }
+        if ((error = config.ParseConfig()) != RC.CODE_SUCCESS) {
+            _logger.warning("ERROR: Config parsing error in Decompressor Config Parser");
+            return error;
+        }
+        if ((error = config.CheckConfig()) != RC.CODE_SUCCESS) {
+            _logger.warning("ERROR: Invalid config error in Decompressor Config Parser");
+            return error;
+        }
+
+        String maxFrameSize = config.GetParameter(DecompressorTags.MAX_FRAME_SIZE.toString());
+        if (maxFrameSize != null) {
+            _maxFrameSize = Integer.parseInt(maxFrameSize.trim());
+            if (_maxFrameSize < 1 || FRAME_HEADER + Bound(_maxFrameSize) > Integer.MAX_VALUE) {
+                _logger.warning("ERROR: Invalid params(MaxFrameSize) in Decompressor config");
+                return RC.CODE_CONFIG_SEMANTIC_ERROR;
+            }
+        }
+        return SetMode(config.GetParameter(DecompressorTags.MODE.toString()),
+                config.GetParameter(DecompressorTags.WORKER_COUNT.toString()));
+    }
+
+    @Override
+    public IPipelineStep Copy(Logger logger) {
+        Decompressor decompressor = new Decompressor(logger);
+        decompressor._mode = _mode;
+        decompressor._workerCount = _workerCount;
+        decompressor._maxFrameSize = _maxFrameSize;
+        return decompressor;
+    }
+
+    @Override
+    protected String Name() {
+        return "Decompressor";
+    }
+
+    @Override
+    protected void Open() {
+        if (_mode == CodecMode.STREAM) {
+            _inflater = new Inflater();
+            return;
+        }
+        _inflaters = new ArrayBlockingQueue<>(_workerCount);
+        for (int i = 0; i < _workerCount; i++) {
+            _inflaters.add(new Inflater());
+        }
+    }
+
+    @Override
+    protected void Close() {
+        if (_inflater != null) {
+            _inflater.end();
+        }
+        if (_inflaters != null) {
+            for (Inflater inflater : _inflaters) {
+                inflater.end();
+            }
+        }
+    }
+
+    @Override
+    protected ArrayList<Callable<byte[]>> Frames(Object chunk) throws DataFormatException {
+        if (_mode == CodecMode.BLOCKS) {
+            return Split(chunk);
+        }
+        ArrayList<Callable<byte[]>> frames = new ArrayList<>(1);
+        frames.add(() -> Inflate(chunk));
+        return frames;
+    }
+
+    /* Whatever the stream yields for the chunk. Bytes past the end of the stream are the Reader's padding */
+    private byte[] Inflate(Object chunk) throws DataFormatException {
+        if (chunk == null) {
+            if (!_inflater.finished()) {
+                throw new DataFormatException("Truncated stream");
+            }
+            return new byte[0];
+        }
+        if (_inflater.finished()) {
+            Release(chunk);
+            return new byte[0];
+        }
+
+        ByteBuffer input = Heap(chunk);
+        _inflater.setInput(input.array(), input.arrayOffset() + input.position(), input.remaining());
+        int size = 0;
+        while (!_inflater.finished() && !_inflater.needsInput()) {
+            if (size == _output.length) {
+                _output = Arrays.copyOf(_output, Math.max(2 * _output.length, 4096));
+            }
+            size += _inflater.inflate(_output, size, _output.length - size);
+            if (_inflater.needsDictionary()) {
+                throw new DataFormatException("Preset dictionaries are not supported");
+            }
+        }
+        Release(chunk);
+        return Arrays.copyOf(_output, size);
+    }
+
+    /* Cuts the frames complete so far out of the bytes read. A zero frame length can only be padding */
+    private ArrayList<Callable<byte[]>> Split(Object chunk) throws DataFormatException {
+        ArrayList<Callable<byte[]>> frames = new ArrayList<>();
+        if (chunk == null) {
+            while (_carry.hasRemaining()) {
+                if (_carry.get() != 0) {
+                    throw new DataFormatException("Truncated frame");
+                }
+            }
+            return frames;
+        }
+        if (!_isPadding) {
+            Append(Heap(chunk));
+        }
+        Release(chunk);
+
+        while (_carry.remaining() >= FRAME_HEADER) {
+            int payload = _carry.getInt(_carry.position());
+            int length = _carry.getInt(_carry.position() + Integer.BYTES);
+            if (payload == 0) {
+                _isPadding = true;
+                _carry.position(_carry.limit());
+                break;
+            }
+            if (payload < 0 || length < 0 || length > _maxFrameSize || payload > Bound(_maxFrameSize)) {
+                throw new DataFormatException("Invalid frame header");
+            }
+            if (_carry.remaining() < FRAME_HEADER + payload) {
+                break;
+            }
+            byte[] frame = new byte[payload];
+            _carry.position(_carry.position() + FRAME_HEADER);
+            _carry.get(frame);
+            frames.add(() -> InflateFrame(frame, length));
+        }
+        return frames;
+    }
+
+    /* Keeps the bytes not cut into frames yet in _carry, ready for reading */
+    private void Append(ByteBuffer input) {
+        int size = _carry.remaining() + input.remaining();
+        if (size > _carry.capacity()) {
+            ByteBuffer carry = ByteBuffer.allocate(Math.max(size, 2 * _carry.capacity()));
+            carry.put(_carry);
+            _carry = carry;
+        } else {
+            _carry.compact();
+        }
+        _carry.put(input.duplicate());
+        _carry.flip();
+    }
+
+    private byte[] InflateFrame(byte[] frame, int length) throws DataFormatException, InterruptedException {
+        Inflater inflater = _inflaters.take();
+        try {
+            inflater.reset();
+            inflater.setInput(frame);
+            byte[] product = new byte[length];
+            byte[] overflow = new byte[1];
+            int size = 0;
+            while (!inflater.finished()) {
+                int inflated = size < length ?
+                        inflater.inflate(product, size, length - size) : inflater.inflate(overflow);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated frame");
+                }
+                size += inflated;
+                if (size > length) {
+                    throw new DataFormatException("Frame longer than its header");
+                }
+            }
+            if (size != length) {
+                throw new DataFormatException("Frame shorter than its header");
+            }
+            return product;
+        } finally {
+            _inflaters.add(inflater);
+        }
+    }
+}
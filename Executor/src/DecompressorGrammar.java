@@ -0,0 +1,18 @@
+import ru.spbstu.pipeline.BaseGrammar;
+
+import java.util.Arrays;
+
+public class DecompressorGrammar extends BaseGrammar {
+    public DecompressorGrammar() {
+        super(Grammar());
+    }
+    public static String[] Grammar(){
+        DecompressorTags[] tags = DecompressorTags.values();
+        String[] grammar = new String[tags.length];
+        int count = 0;
+        for(int i = 0; i < tags.length; i++)
+            if(!tags[i].IsOptional())
+                grammar[count++] = tags[i].toString();
+        return Arrays.copyOf(grammar, count);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,16 @@
+public enum DecompressorTags {
+    MODE(false),
+    WORKER_COUNT(false),
+    MAX_FRAME_SIZE(true);
+
+    private final boolean _isOptional;
+
+    DecompressorTags(boolean isOptional) {
+        _isOptional = isOptional;
+    }
+
+    /* Optional tags are left out of the grammar, so configs may omit them */
+    public boolean IsOptional() {
+        return _isOptional;
+    }
+}
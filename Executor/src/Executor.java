@@ -2,23 +2,33 @@ import ru.spbstu.pipeline.*;
 
 import java.io.File;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.nio.CharBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
-public class Executor implements IExecutor {
+public class Executor implements IExecutor, FusableStage, CopyableStage, PartitionStage {
     private IMediator _prodMediator;
+    private ChunkRing _prodRing;
     private static final int LONG_SIZE = 8;
+    private static final int RING_CAPACITY = 64;
     private int _shiftQuantity;
     private int _singleShift;
-    private byte[] _product;
+    private int[] _shifts;
+    private int _workerCount;
     private final TYPE[] _outputTypes = {TYPE.BYTE, TYPE.SHORT, TYPE.CHAR};
     private final TYPE[] _workingTypes = {TYPE.BYTE};
     private final Logger _logger;
+    private volatile RC _result = RC.CODE_SUCCESS;
 
-    private HashMap<Integer, byte[]> _chunksToGive;
-    private LinkedList<Integer> _chunksToReceive;
+    private ChunkRing _chunksToGive;
+    private ChunkRing _chunksToReceive;
+    private ChunkPool _pool = new ChunkPool();
     private INotifier _consumerNotifier;
 
     @Override
@@ -41,48 +51,72 @@ public class Executor implements IExecutor {
         }
     }
 
-    class MediatorByte implements IMediator {
+    /* Buffer products are handed on as they are to consumers reading buffers, and as their array
+     * to consumers reading arrays. Only direct products are copied out, into a pooled array */
+    class MediatorByte implements BufferMediator, ChunkPool.Source {
         public byte[] getData(int chunkId) {
-            synchronized (_chunksToGive) {
-                return _chunksToGive.remove(chunkId);
+            Object product = Handoff(chunkId);
+            byte[] owned = ChunkPool.Owned(product);
+            if (product == null || owned != null) {
+                return owned;
             }
+            ByteBuffer buffer = (ByteBuffer) product;
+            byte[] bytes = _pool.Acquire(buffer.remaining());
+            buffer.get(bytes);
+            _pool.Release(product);
+            return bytes;
+        }
+
+        public ByteBuffer getBuffer(int chunkId) {
+            return ToBuffer(Handoff(chunkId));
+        }
+
+        public ChunkPool Pool() {
+            return _pool;
         }
     }
 
-    class MediatorShort implements IMediator {
+    class MediatorShort implements BufferMediator {
         public short[] getData(int chunkId) {
-            byte[] data;
-            synchronized (_chunksToGive) {
-                data = _chunksToGive.remove(chunkId);
-            }
-            if (data == null) {
+            ShortBuffer view = getBuffer(chunkId);
+            if (view == null) {
                 return null;
             }
 
-            short[] shorts = new short[data.length / 2];
-            ByteBuffer.wrap(data).asShortBuffer().get(shorts);
+            short[] shorts = new short[view.remaining()];
+            view.get(shorts);
             return shorts;
         }
+
+        public ShortBuffer getBuffer(int chunkId) {
+            ByteBuffer data = ToBuffer(Handoff(chunkId));
+            return data == null ? null : data.asShortBuffer();
+        }
     }
 
-    class MediatorChar implements IMediator {
+    /* Chars are the big-endian UTF-16 code units of the chunk, handed out without decoding */
+    class MediatorChar implements BufferMediator {
         public char[] getData(int chunkId) {
-            byte[] data;
-            synchronized (_chunksToGive) {
-                data = _chunksToGive.remove(chunkId);
-            }
-            if (data == null) {
+            CharBuffer view = getBuffer(chunkId);
+            if (view == null) {
                 return null;
             }
 
-            return new String(data, StandardCharsets.UTF_16).toCharArray();
+            char[] chars = new char[view.remaining()];
+            view.get(chars);
+            return chars;
+        }
+
+        public CharBuffer getBuffer(int chunkId) {
+            ByteBuffer data = ToBuffer(Handoff(chunkId));
+            return data == null ? null : data.asCharBuffer();
         }
     }
 
     public Executor(Logger logger){
         _logger = logger;
-        _chunksToReceive = new LinkedList<>();
-        _chunksToGive = new HashMap<>();
+        _chunksToReceive = new ChunkRing(RING_CAPACITY, WaitStrategy.Kind.PARK);
+        _chunksToGive = new ChunkRing(RING_CAPACITY, WaitStrategy.Kind.PARK);
     }
 
     @Override
@@ -120,6 +154,12 @@ public class Executor implements IExecutor {
             _logger.warning("ERROR: Invalid params(SingleShift) in Executor config");
             return RC.CODE_CONFIG_SEMANTIC_ERROR;
         }
+        _shifts = new int[] {_singleShift * _shiftQuantity};
+        _workerCount = Integer.parseInt(config.GetParameter(ExecutorTags.WORKER_COUNT.toString()));
+        if(_workerCount < 1){
+            _logger.warning("ERROR: Invalid params(WorkerCount) in Executor config");
+            return RC.CODE_CONFIG_SEMANTIC_ERROR;
+        }
         return RC.CODE_SUCCESS;
     }
 
@@ -134,6 +174,12 @@ public class Executor implements IExecutor {
                 for (TYPE producerType : producerTypes) {
                     if (workingType == producerType) {
                         _prodMediator = producer.getMediator(workingType);
+                        if (_prodMediator instanceof ChunkRing.Source) {
+                            _prodRing = ((ChunkRing.Source) _prodMediator).Ring();
+                        }
+                        if (ChunkPool.Of(_prodMediator) != null) {
+                            _pool = ChunkPool.Of(_prodMediator);
+                        }
                         return RC.CODE_SUCCESS;
                     }
                 }
@@ -143,23 +189,170 @@ public class Executor implements IExecutor {
             return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
     }
 
+    /* Array chunks are owned by the executor once taken: aligned ones are rotated in place
+     * and handed on as they are, so nothing is allocated per chunk */
     public RC execute(byte[] bytes, int chunkId) {
         if (bytes == null) {
             return RC.CODE_SUCCESS;
         }
-        int bufferSize = bytes.length % LONG_SIZE == 0 ?
-                bytes.length : bytes.length + LONG_SIZE - bytes.length % LONG_SIZE;
-        byte[] buffer = new byte[bufferSize];
-        System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+        return Publish(Transform(bytes, chunkId), chunkId);
+    }
+
+    /* Buffer views (e.g. slices of a memory-mapped input) and unaligned chunks are rotated straight
+     * into a zero padded product, without an intermediate padded copy */
+    public RC execute(ByteBuffer chunk, int chunkId) {
+        if (chunk == null) {
+            return RC.CODE_SUCCESS;
+        }
+        return Publish(Transform(chunk, chunkId), chunkId);
+    }
+
+    private Object Transform(Object chunk, int chunkId) {
+        Object event = ChunkEvents.Begin(ChunkEvents.Kind.TRANSFORM);
+        Object product = Rotate(chunk);
+        ChunkEvents.Commit(event, "Executor", chunkId, SizeOf(product));
+        return product;
+    }
+
+    /* A writable view over a whole array is pooled together with it and a direct chunk stays off-heap,
+     * so aligned ones are rotated in place and handed on as they are. Unaligned ones go back to the pool
+     * once rotated into a padded product, other views (mapped, shared with other consumers) are released
+     * once rotated into a heap product */
+    private Object Rotate(Object chunk) {
+        if (chunk instanceof byte[]) {
+            return Rotate((byte[]) chunk);
+        }
+        ByteBuffer buffer = (ByteBuffer) chunk;
+        boolean isDirect = ChunkPool.OwnedDirect(chunk) != null;
+        if ((isDirect || ChunkPool.Owned(chunk) != null) && buffer.remaining() % LONG_SIZE == 0) {
+            WordKernels.Rotate(buffer, RefinedShift(buffer.remaining()));
+            return buffer;
+        }
+        ByteBuffer product = RotatePadded(buffer, isDirect);
+        _pool.Release(chunk);
+        return product;
+    }
+
+    /* Arrays handed over bare are rotated in place by the array kernel, or into a padded product */
+    private Object Rotate(byte[] bytes) {
+        if (bytes.length % LONG_SIZE != 0) {
+            ByteBuffer product = _pool.AcquireBuffer(bytes.length + LONG_SIZE - bytes.length % LONG_SIZE);
+            RotatePadded(bytes, product);
+            _pool.Release(bytes);
+            return product;
+        }
+        WordKernels.Rotate(bytes, RefinedShift(bytes.length));
+        return bytes;
+    }
 
-        _product = new byte[bufferSize];
-        int refinedShift = _singleShift * _shiftQuantity;
-        refinedShift = (bufferSize > refinedShift) ? refinedShift : bufferSize % refinedShift;
-        System.arraycopy(buffer, 0, _product, refinedShift, bufferSize - refinedShift);
-        System.arraycopy(buffer, bufferSize - refinedShift, _product, 0, refinedShift);
+    /* The chunk is copied a word at a time to its rotated place in a product padded with zeroes to whole
+     * words. Shifts and the padded size are whole words, so no word wraps around, and the only partial
+     * word is the tail one, cleared before its bytes go in. Chunks and products are all big-endian,
+     * so words are moved with their bytes as they are */
+    private ByteBuffer RotatePadded(ByteBuffer chunk, boolean isDirect) {
+        int length = chunk.remaining();
+        int bufferSize = length % LONG_SIZE == 0 ?
+                length : length + LONG_SIZE - length % LONG_SIZE;
+        ByteBuffer product = isDirect ? _pool.AcquireDirect(bufferSize) : _pool.AcquireBuffer(bufferSize);
 
-        synchronized (_chunksToGive) {
-            _chunksToGive.put(chunkId, _product);
+        int refinedShift = RefinedShift(bufferSize);
+        int from = chunk.position();
+        int words = length - length % LONG_SIZE;
+        for (int i = 0; i < words; i += LONG_SIZE) {
+            product.putLong(Wrap(i + refinedShift, bufferSize), chunk.getLong(from + i));
+        }
+        if (words != length) {
+            product.putLong(Wrap(words + refinedShift, bufferSize), 0);
+        }
+        for (int i = words; i < length; i++) {
+            product.put(Wrap(i + refinedShift, bufferSize), chunk.get(from + i));
+        }
+        return product;
+    }
+
+    private void RotatePadded(byte[] bytes, ByteBuffer product) {
+        int bufferSize = product.capacity();
+        byte[] padded = product.array();
+        int refinedShift = RefinedShift(bufferSize);
+        int head = Math.min(bytes.length, bufferSize - refinedShift);
+        Arrays.fill(padded, (byte) 0);
+        System.arraycopy(bytes, 0, padded, refinedShift, head);
+        System.arraycopy(bytes, head, padded, 0, bytes.length - head);
+    }
+
+    private static int Wrap(int index, int bufferSize) {
+        return index < bufferSize ? index : index - bufferSize;
+    }
+
+    /* Rotations compose, so every fused shift just adds up (modulo the buffer size) */
+    private int RefinedShift(int bufferSize) {
+        int refinedShift = 0;
+        for (int shift : _shifts) {
+            refinedShift += (bufferSize > shift) ? shift : bufferSize % shift;
+            if (refinedShift > bufferSize) {
+                refinedShift -= bufferSize;
+            }
+        }
+        return refinedShift;
+    }
+
+    /* Every product is the chunk padded to whole longs, so lanes of a partitioned input add up */
+    @Override
+    public int ChunkSize() {
+        return 0;
+    }
+
+    @Override
+    public void SetPartition(long firstChunk, long chunks) {
+    }
+
+    @Override
+    public IPipelineStep Copy(Logger logger) {
+        Executor executor = new Executor(logger);
+        executor._singleShift = _singleShift;
+        executor._shiftQuantity = _shiftQuantity;
+        executor._shifts = _shifts.clone();
+        executor._workerCount = _workerCount;
+        return executor;
+    }
+
+    /* A configured Executor that follows this one is absorbed as one more shift of the same pass.
+     * Only the second stage's padding is lost, and it never pads because our products are aligned */
+    @Override
+    public boolean Fuse(IPipelineStep next) {
+        if (next == null || next.getClass() != Executor.class || ((Executor) next)._shifts == null) {
+            return false;
+        }
+        Executor executor = (Executor) next;
+        int[] shifts = Arrays.copyOf(_shifts, _shifts.length + executor._shifts.length);
+        System.arraycopy(executor._shifts, 0, shifts, _shifts.length, executor._shifts.length);
+        _shifts = shifts;
+        _workerCount = Math.max(_workerCount, executor._workerCount);
+        return true;
+    }
+
+    /* Every mediator takes its chunk here, so the handoff is traced once whatever the type */
+    private Object Handoff(int chunkId) {
+        Object product = _chunksToGive.Take(chunkId);
+        if (product != null) {
+            ChunkEvents.Emit(ChunkEvents.Kind.HANDOFF, "Executor", chunkId, SizeOf(product));
+        }
+        return product;
+    }
+
+    /* Products are the byte[] chunks handed over bare, or ByteBuffers (heap ones over whole arrays, or direct) */
+    private static long SizeOf(Object product) {
+        return product instanceof byte[] ? ((byte[]) product).length : ((ByteBuffer) product).remaining();
+    }
+
+    /* Only arrays handed over bare are wrapped, buffer products are pooled with their wrapper already */
+    private static ByteBuffer ToBuffer(Object product) {
+        return product == null || product instanceof ByteBuffer ? (ByteBuffer) product : ByteBuffer.wrap((byte[]) product);
+    }
+
+    private RC Publish(Object product, int chunkId) {
+        if (!_chunksToGive.Put(chunkId, product)) {
+            return RC.CODE_SYNCHRONIZATION_ERROR;
         }
         return RC.CODE_SUCCESS;
     }
@@ -167,11 +360,11 @@ public class Executor implements IExecutor {
     class ExecutorNotifier implements INotifier {
         @Override
         public RC notify(int chunkId) {
-            synchronized (_chunksToReceive) {
-                _chunksToReceive.add(chunkId);
+            if (_prodRing != null) {
+                return RC.CODE_SUCCESS;
             }
-            synchronized (Executor.this) {
-                Executor.this.notify();
+            if (!_chunksToReceive.Put(chunkId, null)) {
+                return RC.CODE_SYNCHRONIZATION_ERROR;
             }
             return RC.CODE_SUCCESS;
         }
@@ -188,37 +381,104 @@ public class Executor implements IExecutor {
         return new ExecutorNotifier();
     }
 
+    public RC getResult() {
+        return _result;
+    }
+
     @Override
     public void run() {
-        byte[] bytes = null;
+        ChunkRing source = _prodRing != null ? _prodRing : _chunksToReceive;
+        RC result = _workerCount > 1 ? RunParallel(source) : RunSequential(source);
+        if (result != RC.CODE_SUCCESS) {
+            _logger.warning(result.toString());
+            _result = result;
+        }
+    }
 
-        do {
-            Integer chunkId;
-            synchronized (_chunksToReceive) {
-                chunkId = _chunksToReceive.poll();
+    private RC RunSequential(ChunkRing source) {
+        while (true) {
+            if (!source.Await()) {
+                return RC.CODE_SYNCHRONIZATION_ERROR;
             }
 
-            if (chunkId == null) {
-                try {
-                    synchronized (this) {
-                        wait();
+            int chunkId = source.HeadId();
+            Object chunk = TakeChunk(chunkId);
+            RC result = chunk == null ? RC.CODE_SUCCESS : Publish(Transform(chunk, chunkId), chunkId);
+            if (result != RC.CODE_SUCCESS ||
+                    (result = _consumerNotifier.notify(chunkId)) != RC.CODE_SUCCESS) {
+                return result;
+            }
+
+            if (chunk == null) {
+                return RC.CODE_SUCCESS;
+            }
+        }
+    }
+
+    /* Rotations run on a worker pool, while this thread keeps dispatching chunks and hands
+     * the products on strictly in the order the chunks came in (a window of in-flight futures
+     * serves as the reorder buffer), so the output ring keeps a single producer */
+    private RC RunParallel(ChunkRing source) {
+        int window = 2 * _workerCount;
+        ArrayDeque<Future<Object>> inFlight = new ArrayDeque<>(window);
+        ArrayDeque<Integer> inFlightIds = new ArrayDeque<>(window);
+        ExecutorService workers = Executors.newFixedThreadPool(_workerCount, task -> {
+            Thread worker = new Thread(task, "Executor worker");
+            worker.setDaemon(true);
+            return worker;
+        });
+
+        try {
+            int endId = 0;
+            boolean isEnd = false;
+            while (true) {
+                while (!inFlight.isEmpty()) {
+                    if (!inFlight.peek().isDone() && !isEnd && inFlight.size() < window && source.HasChunk()) {
+                        break;
                     }
-                    continue;
 
-                } catch (InterruptedException e) {
-                    _logger.warning(RC.CODE_SYNCHRONIZATION_ERROR.toString());
-                    return;
+                    Object product;
+                    try {
+                        product = inFlight.poll().get();
+                    } catch (InterruptedException | ExecutionException e) {
+                        return RC.CODE_SYNCHRONIZATION_ERROR;
+                    }
+                    int productId = inFlightIds.poll();
+
+                    RC result;
+                    if ((result = Publish(product, productId)) != RC.CODE_SUCCESS ||
+                            (result = _consumerNotifier.notify(productId)) != RC.CODE_SUCCESS) {
+                        return result;
+                    }
+                }
+                if (isEnd) {
+                    return _consumerNotifier.notify(endId);
+                }
+
+                if (!source.Await()) {
+                    return RC.CODE_SYNCHRONIZATION_ERROR;
+                }
+                int chunkId = source.HeadId();
+                Object chunk = TakeChunk(chunkId);
+                if (chunk == null) {
+                    isEnd = true;
+                    endId = chunkId;
+                    continue;
                 }
-            }
 
-            bytes = (byte[])_prodMediator.getData(chunkId);
-            RC result;
-            if ((result = execute(bytes, chunkId)) != RC.CODE_SUCCESS) {
-                _logger.warning(result.toString());
-                return;
+                inFlightIds.add(chunkId);
+                inFlight.add(workers.submit(() -> Transform(chunk, chunkId)));
             }
-            _consumerNotifier.notify(chunkId);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
 
-        } while (bytes != null);
+    private Object TakeChunk(int chunkId) {
+        if (_prodRing != null) {
+            return _prodRing.Take(chunkId);
+        }
+        _chunksToReceive.Take(chunkId);
+        return _prodMediator.getData(chunkId);
     }
 }
@@ -1,4 +1,5 @@
 public enum ExecutorTags {
     SHIFT_QUANTITY,
-    SINGLE_SHIFT;
+    SINGLE_SHIFT,
+    WORKER_COUNT;
 }
@@ -0,0 +1,8 @@
+import ru.spbstu.pipeline.IPipelineStep;
+
+/* Opt-in for stages that can take over the work of the next stage in the chain and do both
+ * in a single pass over each chunk. Kept identical in every module */
+public interface FusableStage {
+    /* Called with both stages configured but not linked yet. On true the Manager drops the next stage */
+    boolean Fuse(IPipelineStep next);
+}
@@ -0,0 +1,6 @@
+/* Opt-in for stages keeping a file of their own next to the output of the writer they feed, e.g.
+ * the checksum index of Checksummer. Kept identical in every module */
+public interface SidecarStage {
+    /* Called before the stage runs with the path of that output */
+    void SetOutputPath(String output);
+}
@@ -0,0 +1,66 @@
+import java.nio.ByteBuffer;
+
+/* Rotations of the Executor done a long word at a time. On Java 8 the widest portable access is
+ * ByteBuffer.getLong(int) (VarHandles and the incubating Vector API need newer JVMs), which HotSpot
+ * compiles to plain 8-byte loads and stores on heap and direct buffers alike. Words are only swapped whole,
+ * so their byte order does not matter, and the chunk is addressed absolutely, so no view is allocated.
+ * Chunks that are not whole words, and shifts that are not, take the scalar kernel, which also serves
+ * as the reference the word kernel is measured against */
+public final class WordKernels {
+    private static final int LONG_SIZE = 8;
+
+    private WordKernels() {}
+
+    /* Rotates the remaining bytes of chunk right by shift (0 <= shift <= length) in place */
+    public static void Rotate(ByteBuffer chunk, int shift) {
+        int length = chunk.remaining();
+        if (length % LONG_SIZE != 0 || shift % LONG_SIZE != 0) {
+            RotateScalar(chunk, shift);
+            return;
+        }
+        int from = chunk.position();
+        int to = chunk.limit();
+        ReverseWords(chunk, from, to);
+        ReverseWords(chunk, from, from + shift);
+        ReverseWords(chunk, from + shift, to);
+    }
+
+    public static void RotateScalar(ByteBuffer chunk, int shift) {
+        int from = chunk.position();
+        int to = chunk.limit();
+        Reverse(chunk, from, to);
+        Reverse(chunk, from, from + shift);
+        Reverse(chunk, from + shift, to);
+    }
+
+    /* Bare arrays have no word access on Java 8 without a view, so they are rotated a byte at a time */
+    public static void Rotate(byte[] chunk, int shift) {
+        Reverse(chunk, 0, chunk.length);
+        Reverse(chunk, 0, shift);
+        Reverse(chunk, shift, chunk.length);
+    }
+
+    private static void ReverseWords(ByteBuffer words, int from, int to) {
+        for (int i = from, j = to - LONG_SIZE; i < j; i += LONG_SIZE, j -= LONG_SIZE) {
+            long tmp = words.getLong(i);
+            words.putLong(i, words.getLong(j));
+            words.putLong(j, tmp);
+        }
+    }
+
+    private static void Reverse(ByteBuffer bytes, int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            byte tmp = bytes.get(i);
+            bytes.put(i, bytes.get(j));
+            bytes.put(j, tmp);
+        }
+    }
+
+    private static void Reverse(byte[] bytes, int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            byte tmp = bytes[i];
+            bytes[i] = bytes[j];
+            bytes[j] = tmp;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/* Queues records in a bounded buffer and hands them to the target handlers, formatting and I/O included,
+ * on a single writer thread. When the buffer is full records are dropped and counted instead of
+ * blocking, so an error storm in one stage does not slow down the other stage threads */
+public class AsyncLogHandler extends Handler {
+    private final Handler[] _targets;
+    private final ArrayBlockingQueue<LogRecord> _records;
+    private final AtomicLong _dropped = new AtomicLong();
+    private final Thread _writer;
+    private volatile boolean _closed;
+
+    /* Queued by flush(), released by the writer once everything before it is written.
+     * The one queued by close() also stops the writer */
+    private static class FlushMarker extends LogRecord {
+        private static final long serialVersionUID = 1L;
+        private final transient CountDownLatch _done = new CountDownLatch(1);
+        private final boolean _isLast;
+
+        FlushMarker(boolean isLast) {
+            super(Level.OFF, null);
+            _isLast = isLast;
+        }
+    }
+
+    public AsyncLogHandler(int capacity, Handler... targets) {
+        _targets = targets;
+        _records = new ArrayBlockingQueue<>(capacity);
+        _writer = new Thread(this::WriteRecords, "Log writer");
+        _writer.setDaemon(true);
+        _writer.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (_closed || !isLoggable(record)) {
+            return;
+        }
+        /* The caller would otherwise be inferred later from the writer thread stack.
+         * Loggers are per stage, so the logger name tells the source well enough */
+        record.setSourceClassName(record.getLoggerName());
+        record.setSourceMethodName(null);
+        if (!_records.offer(record)) {
+            _dropped.incrementAndGet();
+        }
+    }
+
+    /* Waits until every record queued so far has been written */
+    @Override
+    public void flush() {
+        if (_closed || Thread.currentThread() == _writer) {
+            return;
+        }
+        FlushMarker marker = new FlushMarker(false);
+        try {
+            _records.put(marker);
+            marker._done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* Stops taking records and waits until the writer has written all queued ones */
+    @Override
+    public void close() {
+        if (_closed) {
+            return;
+        }
+        _closed = true;
+        try {
+            _records.put(new FlushMarker(true));
+            _writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Handler target : _targets) {
+            target.close();
+        }
+    }
+
+    public long Dropped() {
+        return _dropped.get();
+    }
+
+    private void WriteRecords() {
+        long reported = 0;
+        while (true) {
+            LogRecord record;
+            try {
+                record = _records.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            long dropped = _dropped.get();
+            if (dropped != reported) {
+                Publish(new LogRecord(Level.WARNING, "ERROR: " + (dropped - reported) + " log records dropped"));
+                reported = dropped;
+            }
+            if (!(record instanceof FlushMarker)) {
+                Publish(record);
+                continue;
+            }
+            FlushMarker marker = (FlushMarker) record;
+            if (marker._isLast) {
+                /* Records published while close() was queuing its marker are written as well */
+                LogRecord rest;
+                while ((rest = _records.poll()) != null) {
+                    if (rest instanceof FlushMarker) {
+                        ((FlushMarker) rest)._done.countDown();
+                    } else {
+                        Publish(rest);
+                    }
+                }
+            }
+            for (Handler target : _targets) {
+                target.flush();
+            }
+            marker._done.countDown();
+            if (marker._isLast) {
+                return;
+            }
+        }
+    }
+
+    private void Publish(LogRecord record) {
+        for (Handler target : _targets) {
+            target.publish(record);
+        }
+    }
+}
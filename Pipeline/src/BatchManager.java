@@ -0,0 +1,169 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/* Runs the chain of one manager config over many inputs in a single process. INPUT is a directory
+ * (every file in it), a glob over file names (e.g. tests/*.bin) or a list file with one path per line,
+ * OUTPUT is the directory receiving an output named after each input. At most BATCH_CONCURRENCY pipelines
+ * run at once; their stages share one pool of threads, which therefore holds at most
+ * BATCH_CONCURRENCY times the chain length threads and is reused from one input to the next.
+ * With STAGE_THREADS=VIRTUAL both pipelines and stages run on virtual threads */
+public class BatchManager {
+    private static final String GLOB_CHARS = "*?[{";
+
+    private final ManagerConfig _config;
+    private final PipelinePlan _plan;
+    private final Logger _logger;
+
+    /* The plan is built once from config and shared by the pipelines of all inputs */
+    public BatchManager(ManagerConfig config, PipelinePlan plan, Logger logger) {
+        _config = config;
+        _plan = plan;
+        _logger = logger;
+    }
+
+    public BatchResult Run() {
+        BatchResult batch = new BatchResult();
+        if (_plan == null) {
+            return batch;
+        }
+        int concurrency;
+        try {
+            concurrency = Integer.parseInt(_config.GetParameter(ManagerGrammar.Tags.BATCH_CONCURRENCY.getCode()));
+        } catch (NumberFormatException e) {
+            concurrency = 0;
+        }
+        if (concurrency < 1) {
+            _logger.warning("ERROR: Invalid batch concurrency in Manager config");
+            return batch;
+        }
+        if (_plan.IsBranching()) {
+            _logger.warning("ERROR: Batch runs need a chain without fan-out, its outputs would collide");
+            return batch;
+        }
+
+        ArrayList<File> inputs;
+        try {
+            inputs = ListInputs(_config.GetParameter(ManagerGrammar.Tags.INPUT.getCode()));
+        } catch (IOException e) {
+            _logger.log(Level.WARNING, "ERROR: Batch input listing error: {0}", e.getMessage());
+            return batch;
+        }
+        File outputDir = new File(_config.GetParameter(ManagerGrammar.Tags.OUTPUT.getCode()));
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            _logger.warning("ERROR: Batch output directory error");
+            return batch;
+        }
+
+        ThreadFactory virtualThreads = _plan.StageThreads();
+        /* Virtual threads are cheap to start, so each pipeline starts its own instead of sharing a stage pool */
+        ExecutorService pipelines = Executors.newFixedThreadPool(concurrency,
+                virtualThreads != null ? virtualThreads : DaemonThreads("Batch pipeline"));
+        ExecutorService stages = virtualThreads != null ? null : Executors.newCachedThreadPool(DaemonThreads("Batch stage"));
+        try {
+            ArrayList<Future<PipelineResult>> results = new ArrayList<>();
+            HashSet<String> outputs = new HashSet<>();
+            for (File input : inputs) {
+                ManagerConfig config = new ManagerConfig(_config);
+                config.AddParameter(ManagerGrammar.Tags.INPUT.getCode(), input.getPath());
+                config.AddParameter(ManagerGrammar.Tags.OUTPUT.getCode(), OutputFor(input, outputDir, outputs).getPath());
+                results.add(pipelines.submit(() -> {
+                    Manager manager = new Manager(config, _plan);
+                    return manager.FormPipeline() ? manager.ManageExecution(stages) : null;
+                }));
+            }
+
+            for (int i = 0; i < inputs.size(); i++) {
+                PipelineResult result;
+                try {
+                    result = results.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    _logger.log(Level.WARNING, "ERROR: Batch pipeline terminated by {0}", e.getCause());
+                    result = null;
+                }
+                batch.AddInput(inputs.get(i).getPath(), result);
+                _logger.log(Level.INFO, "Batch input {0}: {1}",
+                        new Object[] {inputs.get(i).getPath(), result == null ? "FAILED_PIPELINE_CONSTRUCTION" : result});
+            }
+        } finally {
+            pipelines.shutdownNow();
+            if (stages != null)
+                stages.shutdownNow();
+        }
+
+        if (!batch.IsSuccessful())
+            _logger.log(Level.WARNING, "ERROR: Batch failed: {0} of {1} inputs",
+                    new Object[] {batch.FailedNumber(), batch.InputsNumber()});
+        return batch;
+    }
+
+    private static ArrayList<File> ListInputs(String input) throws IOException {
+        ArrayList<File> inputs = new ArrayList<>();
+        File file = new File(input);
+        if (file.isDirectory()) {
+            File[] files = file.listFiles(File::isFile);
+            if (files != null)
+                Collections.addAll(inputs, files);
+        } else if (IsGlob(file.getName())) {
+            Path dir = file.getParentFile() != null ? file.getParentFile().toPath() : Paths.get(".");
+            try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir, file.getName())) {
+                for (Path path : paths)
+                    if (Files.isRegularFile(path))
+                        inputs.add(path.toFile());
+            }
+        } else {
+            try (BufferedReader list = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = list.readLine()) != null)
+                    if (!line.trim().isEmpty())
+                        inputs.add(new File(line.trim()));
+            }
+            return inputs;
+        }
+        Collections.sort(inputs);
+        return inputs;
+    }
+
+    private static boolean IsGlob(String name) {
+        for (char c : GLOB_CHARS.toCharArray())
+            if (name.indexOf(c) >= 0)
+                return true;
+        return false;
+    }
+
+    /* Inputs from a list file may share a name, later ones get their position appended */
+    private static File OutputFor(File input, File outputDir, HashSet<String> outputs) {
+        String name = input.getName();
+        for (int i = 1; !outputs.add(name); i++)
+            name = input.getName() + "." + i;
+        return new File(outputDir, name);
+    }
+
+    private static ThreadFactory DaemonThreads(String name) {
+        AtomicInteger number = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + " " + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,44 @@
+import java.util.ArrayList;
+
+public class BatchResult {
+    private final ArrayList<String> _inputs = new ArrayList<>();
+    private final ArrayList<PipelineResult> _results = new ArrayList<>();
+
+    /* result is null for a pipeline that could not even be formed */
+    public void AddInput(String input, PipelineResult result) {
+        _inputs.add(input);
+        _results.add(result);
+    }
+
+    public int InputsNumber() { return _inputs.size(); }
+    public String GetInput(int i) { return _inputs.get(i); }
+    public PipelineResult GetResult(int i) { return _results.get(i); }
+
+    public boolean IsSuccessful(int i) {
+        return _results.get(i) != null && _results.get(i).IsSuccessful();
+    }
+
+    public int FailedNumber() {
+        int failed = 0;
+        for (int i = 0; i < _inputs.size(); i++)
+            if (!IsSuccessful(i))
+                failed++;
+        return failed;
+    }
+
+    public boolean IsSuccessful() {
+        return !_inputs.isEmpty() && FailedNumber() == 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < _inputs.size(); i++) {
+            report.append(_inputs.get(i)).append(": ");
+            report.append(_results.get(i) == null ? "FAILED_PIPELINE_CONSTRUCTION" : _results.get(i).toString());
+            report.append('\n');
+        }
+        report.append(_inputs.size() - FailedNumber()).append(" of ").append(_inputs.size()).append(" inputs succeeded");
+        return report.toString();
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Checksum;
+
+/* Checks an output against the index a Checksummer kept next to it, instead of running the chain again
+ * and comparing. The records are split into one range per worker, and each worker reads its chunks with
+ * positional reads of a shared channel into a direct buffer, which checksums without a copy */
+public class ChecksumVerifier {
+    private static final int MAX_REPORTED = 16;
+
+    private final String _output;
+    private final int _workers;
+    private final Logger _logger;
+    private final AtomicLong _mismatches = new AtomicLong();
+
+    public ChecksumVerifier(String output, int workers, Logger logger) {
+        _output = output;
+        _workers = workers;
+        _logger = logger;
+    }
+
+    public boolean Run() {
+        if (_output == null || _workers < 1) {
+            _logger.warning("ERROR: Invalid output or worker count to verify");
+            return false;
+        }
+        ByteBuffer index;
+        try {
+            index = ByteBuffer.wrap(Files.readAllBytes(Paths.get(ChecksumIndex.PathOf(_output))));
+        } catch (IOException e) {
+            _logger.warning("ERROR: Index reading error for " + _output);
+            return false;
+        }
+        ChecksumIndex.Algorithm algorithm = ChecksumIndex.ReadHeader(index);
+        if (algorithm == null || (index.remaining() - ChecksumIndex.HEADER_SIZE) % ChecksumIndex.RECORD_SIZE != 0) {
+            _logger.warning("ERROR: Invalid index for " + _output);
+            return false;
+        }
+        if (!ChecksumIndex.IsAvailable(algorithm)) {
+            _logger.warning("ERROR: " + algorithm + " of the index is not available on this JVM");
+            return false;
+        }
+        int records = (index.remaining() - ChecksumIndex.HEADER_SIZE) / ChecksumIndex.RECORD_SIZE;
+
+        long expected = 0;
+        for (int i = 0; i < records; i++) {
+            expected = Math.max(expected, Offset(index, i) + Length(index, i));
+        }
+        long actual = new File(_output).length();
+        if (actual != expected) {
+            _logger.warning("ERROR: " + _output + " has " + actual + " bytes, its index covers " + expected);
+            return false;
+        }
+
+        int workers = Math.max(Math.min(_workers, records), 1);
+        ExecutorService pool = Executors.newFixedThreadPool(workers, DaemonThreads());
+        try (RandomAccessFile file = new RandomAccessFile(_output, "r")) {
+            FileChannel channel = file.getChannel();
+            ArrayList<Future<?>> ranges = new ArrayList<>();
+            for (int worker = 0; worker < workers; worker++) {
+                int from = (int) ((long) records * worker / workers);
+                int to = (int) ((long) records * (worker + 1) / workers);
+                ranges.add(pool.submit(() -> {
+                    Verify(channel, index, from, to, algorithm);
+                    return null;
+                }));
+            }
+            for (Future<?> range : ranges) {
+                range.get();
+            }
+        } catch (IOException e) {
+            _logger.warning("ERROR: Output reading error for " + _output);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            _logger.log(Level.WARNING, "ERROR: Verification terminated by {0}", e.getCause());
+            return false;
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (_mismatches.get() != 0) {
+            _logger.warning("ERROR: " + _mismatches.get() + " of " + records + " chunks of " + _output + " do not match");
+            return false;
+        }
+        _logger.info(_output + " verified, " + records + " chunks");
+        return true;
+    }
+
+    private void Verify(FileChannel channel, ByteBuffer index, int from, int to, ChecksumIndex.Algorithm algorithm)
+            throws IOException {
+        int capacity = 0;
+        for (int i = from; i < to; i++) {
+            capacity = Math.max(capacity, Length(index, i));
+        }
+        ByteBuffer chunk = ByteBuffer.allocateDirect(capacity);
+        Checksum checksum = ChecksumIndex.NewChecksum(algorithm);
+        for (int i = from; i < to; i++) {
+            long offset = Offset(index, i);
+            chunk.clear().limit(Length(index, i));
+            while (chunk.hasRemaining()) {
+                if (channel.read(chunk, offset + chunk.position()) < 0) {
+                    throw new IOException("Unexpected end of " + _output);
+                }
+            }
+            chunk.flip();
+            if (ChecksumIndex.Compute(checksum, chunk) != index.getInt(Record(i) + 16) &&
+                    _mismatches.incrementAndGet() <= MAX_REPORTED) {
+                _logger.warning("ERROR: Chunk " + index.getInt(Record(i)) + " at " + offset + " does not match its checksum");
+            }
+        }
+    }
+
+    /* Fields of a record: chunkId, offset at +4, length at +12, checksum at +16 */
+    private static int Record(int record) {
+        return ChecksumIndex.HEADER_SIZE + record * ChecksumIndex.RECORD_SIZE;
+    }
+
+    private static long Offset(ByteBuffer index, int record) {
+        return index.getLong(Record(record) + 4);
+    }
+
+    private static int Length(ByteBuffer index, int record) {
+        return index.getInt(Record(record) + 12);
+    }
+
+    private static ThreadFactory DaemonThreads() {
+        AtomicInteger number = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, "Verifier " + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
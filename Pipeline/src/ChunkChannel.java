@@ -0,0 +1,218 @@
+import ru.spbstu.pipeline.*;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+/* Bounded link between two adjacent stages. On notify() the chunk is pulled from the producer
+ * into a ChunkRing of "capacity" slots, parking the producer while the ring is full.
+ * Consumers either take chunks through getData() or read the ring directly via ChunkRing.Source */
+public class ChunkChannel implements IProducer, INotifier {
+    private final IProducer _producer;
+    private final ChunkRing _ring;
+    private final Logger _logger;
+    private IMediator _prodMediator;
+    private INotifier _consumerNotifier;
+    private TYPE _type;
+    private boolean _isReleasing;
+
+    /* Totals after every put, indexed by put count. With one entry more than the ring, the entry of
+     * the last taken chunk stays valid until the consumer takes the next one */
+    private final AtomicLongArray _putBytes;
+    private final AtomicLongArray _putChunks;
+    private volatile long _bytes;
+    private volatile long _chunks;
+    private final Histogram _chunkBytes = new Histogram();
+    private final Histogram _handoffNanos = new Histogram();
+
+    public ChunkChannel(IProducer producer, int capacity, WaitStrategy.Kind waitKind, long timeoutNanos, Logger logger) {
+        this(producer, null, capacity, waitKind, timeoutNanos, logger);
+    }
+
+    /* With the type negotiated once for the chain (see PipelinePlan) the channel offers only that type,
+     * unless it is null */
+    public ChunkChannel(IProducer producer, TYPE type, int capacity, WaitStrategy.Kind waitKind, long timeoutNanos,
+                        Logger logger) {
+        _producer = producer;
+        _type = type;
+        _ring = new ChunkRing(capacity, waitKind, timeoutNanos);
+        _logger = logger;
+        _putBytes = new AtomicLongArray(capacity + 1);
+        _putChunks = new AtomicLongArray(capacity + 1);
+    }
+
+    public void SetConsumerNotifier(INotifier consumerNotifier) {
+        _consumerNotifier = consumerNotifier;
+    }
+
+    @Override
+    public TYPE[] getOutputTypes() {
+        return _type != null ? new TYPE[] {_type} : _producer.getOutputTypes();
+    }
+
+    @Override
+    public IMediator getMediator(TYPE type) {
+        _prodMediator = _producer.getMediator(type);
+        _type = type;
+        return _prodMediator == null ? null : new ChannelMediator();
+    }
+
+    class ChannelMediator implements BufferMediator, ChunkRing.Source, ChunkPool.Source {
+        @Override
+        public Object getData(int chunkId) {
+            Object chunk = _ring.Take(chunkId);
+            ChunkPool pool = ChunkPool.Of(_prodMediator);
+            if (pool == null || !(chunk instanceof ByteBuffer)) {
+                return ToArray(chunk);
+            }
+            /* A pooled chunk is handed over as its array, which goes back to the pool with the consumer.
+             * Direct chunks and shared views are copied into a pooled array and released, they are
+             * this consumer's own, so they are read as they are */
+            byte[] owned = ChunkPool.Owned(chunk);
+            if (owned != null) {
+                return owned;
+            }
+            ByteBuffer buffer = (ByteBuffer) chunk;
+            byte[] array = pool.Acquire(buffer.remaining());
+            buffer.get(array);
+            pool.Release(chunk);
+            return array;
+        }
+
+        @Override
+        public Buffer getBuffer(int chunkId) {
+            return ToBuffer(_ring.Take(chunkId));
+        }
+
+        @Override
+        public ChunkRing Ring() {
+            return _ring;
+        }
+
+        /* Asked for by consumers that release their chunks, see ChunkTee */
+        @Override
+        public ChunkPool Pool() {
+            _isReleasing = true;
+            return ChunkPool.Of(_prodMediator);
+        }
+    }
+
+    @Override
+    public RC notify(int chunkId) {
+        long start = System.nanoTime();
+        return Offer(chunkId, Pull(chunkId), start);
+    }
+
+    /* Takes the chunk from the producer, null past the last one */
+    Object Pull(int chunkId) {
+        return _prodMediator instanceof BufferMediator ?
+                ((BufferMediator) _prodMediator).getBuffer(chunkId) : _prodMediator.getData(chunkId);
+    }
+
+    /* Puts a chunk pulled at start into the ring and notifies the consumer */
+    RC Offer(int chunkId, Object chunk, long start) {
+        if (chunk != null) {
+            long size = SizeOf(chunk);
+            _bytes += size;
+            _chunks++;
+            _chunkBytes.Record(size);
+        }
+        int entry = (int) (_ring.PutCount() % _putBytes.length());
+        _putBytes.lazySet(entry, _bytes);
+        _putChunks.lazySet(entry, _chunks);
+        if (!_ring.Put(chunkId, chunk)) {
+            _logger.warning("ERROR: Channel was interrupted or timed out while waiting for consumer");
+            return RC.CODE_SYNCHRONIZATION_ERROR;
+        }
+        _handoffNanos.Record(System.nanoTime() - start);
+        return _consumerNotifier.notify(chunkId);
+    }
+
+    public ChunkRing Ring() { return _ring; }
+
+    public ChunkPool Pool() { return ChunkPool.Of(_prodMediator); }
+
+    /* Whether the consumer gives its chunks back to the pool */
+    public boolean IsReleasing() { return _isReleasing; }
+
+    /* Type the consumer asked for in setProducer, null until then */
+    public TYPE Type() { return _type; }
+
+    public long BytesPut() { return _bytes; }
+
+    public long ChunksPut() { return _chunks; }
+
+    public long BytesTaken() { return Taken(_putBytes); }
+
+    public long ChunksTaken() { return Taken(_putChunks); }
+
+    /* Sizes of the chunks put and time from asking the producer for a chunk until it is in the ring */
+    public Histogram ChunkBytes() { return _chunkBytes; }
+
+    public Histogram HandoffNanos() { return _handoffNanos; }
+
+    private long Taken(AtomicLongArray totals) {
+        while (true) {
+            long taken = _ring.TakeCount();
+            long total = taken == 0 ? 0 : totals.get((int) ((taken - 1) % totals.length()));
+            if (_ring.TakeCount() == taken) {
+                return total;
+            }
+        }
+    }
+
+    private static long SizeOf(Object chunk) {
+        if (chunk instanceof Buffer) {
+            Buffer buffer = (Buffer) chunk;
+            return buffer instanceof ByteBuffer ? buffer.remaining() : 2L * buffer.remaining();
+        }
+        if (chunk instanceof byte[]) {
+            return ((byte[]) chunk).length;
+        }
+        if (chunk instanceof short[]) {
+            return 2L * ((short[]) chunk).length;
+        }
+        if (chunk instanceof char[]) {
+            return 2L * ((char[]) chunk).length;
+        }
+        return 0;
+    }
+
+    private static Object ToArray(Object chunk) {
+        if (chunk instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) chunk).duplicate();
+            byte[] array = new byte[buffer.remaining()];
+            buffer.get(array);
+            return array;
+        }
+        if (chunk instanceof ShortBuffer) {
+            ShortBuffer buffer = ((ShortBuffer) chunk).duplicate();
+            short[] array = new short[buffer.remaining()];
+            buffer.get(array);
+            return array;
+        }
+        if (chunk instanceof CharBuffer) {
+            CharBuffer buffer = ((CharBuffer) chunk).duplicate();
+            char[] array = new char[buffer.remaining()];
+            buffer.get(array);
+            return array;
+        }
+        return chunk;
+    }
+
+    private static Buffer ToBuffer(Object chunk) {
+        if (chunk instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) chunk);
+        }
+        if (chunk instanceof short[]) {
+            return ShortBuffer.wrap((short[]) chunk);
+        }
+        if (chunk instanceof char[]) {
+            return CharBuffer.wrap((char[]) chunk);
+        }
+        return (Buffer) chunk;
+    }
+}
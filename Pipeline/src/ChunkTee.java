@@ -0,0 +1,48 @@
+import ru.spbstu.pipeline.*;
+
+import java.util.ArrayList;
+
+/* Fan-out of one producer to several consumers, each behind a ChunkChannel of its own. Every chunk is
+ * taken from the producer once and handed to all branches as read-only views, so no consumer changes it
+ * under another. When every consumer releases its chunks, the chunk goes back to the producer's pool
+ * once the last view is released, otherwise it is left to GC. The slowest branch paces the producer */
+public class ChunkTee implements INotifier {
+    private final ArrayList<ChunkChannel> _branches = new ArrayList<>();
+
+    /* Every branch is built over the same producer and type */
+    public void AddBranch(ChunkChannel branch) {
+        _branches.add(branch);
+    }
+
+    @Override
+    public RC notify(int chunkId) {
+        long start = System.nanoTime();
+        Object chunk = _branches.get(0).Pull(chunkId);
+        Object[] views = chunk == null ? new Object[_branches.size()] : Share(chunk);
+        for (int i = 0; i < _branches.size(); i++) {
+            RC error;
+            if ((error = _branches.get(i).Offer(chunkId, views[i], start)) != RC.CODE_SUCCESS) {
+                return error;
+            }
+        }
+        return RC.CODE_SUCCESS;
+    }
+
+    private Object[] Share(Object chunk) {
+        ChunkPool pool = _branches.get(0).Pool();
+        for (ChunkChannel branch : _branches) {
+            if (!branch.IsReleasing()) {
+                pool = null;
+            }
+        }
+        if (pool != null) {
+            return pool.Share(chunk, _branches.size());
+        }
+
+        Object[] views = new Object[_branches.size()];
+        for (int i = 0; i < views.length; i++) {
+            views[i] = ChunkPool.ReadOnly(chunk);
+        }
+        return views;
+    }
+}
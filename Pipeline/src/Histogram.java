@@ -0,0 +1,42 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Histogram of non-negative values in power-of-two buckets: bucket i counts values below 2^i.
+ * Recorded by a single thread (cheap enough for every chunk), read from any thread */
+public class Histogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+    private volatile long _count;
+    private volatile long _max;
+
+    public void Record(long value) {
+        value = Math.max(value, 0);
+        int bucket = BUCKETS - Long.numberOfLeadingZeros(value);
+        _counts.lazySet(bucket, _counts.get(bucket) + 1);
+        if (value > _max) {
+            _max = value;
+        }
+        _count++;
+    }
+
+    public long Count() {
+        return _count;
+    }
+
+    public long Max() {
+        return _max;
+    }
+
+    /* Upper bound of the bucket holding the given fraction of values, e.g. 0.99 */
+    public long Percentile(double fraction) {
+        long rank = (long) Math.ceil(_count * fraction);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += _counts.get(bucket);
+            if (seen >= rank && seen > 0) {
+                return Math.min(bucket == 0 ? 0 : (1L << bucket) - 1, _max);
+            }
+        }
+        return _max;
+    }
+}
@@ -1,26 +1,56 @@
 import ru.spbstu.pipeline.*;
-import java.lang.reflect.*;
+import java.io.Closeable;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 public class Manager {
     private final ManagerConfig _config;
     private final Logger _logger;
     private IPipelineStep _pipHead;
-    private static final Class[] _constrParams = {Logger.class};
+    private static final String LOGGER_NAME = "Manager";
+    private static final int LOG_CAPACITY = 1024;
+    private static Logger _rootLogger;
+    private static final String METRICS_DOMAIN = "KoloskovPipeline";
+    private static final AtomicInteger _pipelineIds = new AtomicInteger();
 
-    private ArrayList<Thread> _pipelineThreads;
+    private ArrayList<StageRunner> _stageRunners;
+    private ArrayList<StageMetrics> _stageMetrics;
+    private final int _pipelineId;
+    private String _configPath;
+    private PipelinePlan _plan;
+    private String _metricsFile;
+    private long _metricsPeriod;
+    private volatile boolean _aborted;
+    private ThreadFactory _stageThreads;
+    private long _firstChunk;
+    private long _chunks = -1;
+    private FileOutputStream _output;
+    private final ArrayList<Closeable> _streams = new ArrayList<>();
 
     public Manager(String configPath) {
-        _logger = GetLogger();
-        _config = new ManagerConfig();
-        _pipelineThreads = new ArrayList<>();
+        this(new ManagerConfig(), null);
+        _configPath = configPath;
 
         if(configPath != null){
             if(_config.SetFile(configPath) != RC.CODE_SUCCESS)
@@ -30,81 +60,150 @@ public class Manager {
         }
     }
 
+    /* Manager over an already parsed config, e.g. one of the pipelines of a batch. A plan built
+     * from the same chain saves building one again, the config still provides INPUT and OUTPUT */
+    public Manager(ManagerConfig config, PipelinePlan plan) {
+        _logger = GetLogger();
+        _config = config;
+        _stageRunners = new ArrayList<>();
+        _stageMetrics = new ArrayList<>();
+        _pipelineId = _pipelineIds.incrementAndGet();
+        _plan = plan;
+    }
+
+    public boolean IsBatch() {
+        return _config.CheckParameter(ManagerGrammar.Tags.BATCH_CONCURRENCY.getCode());
+    }
+
+    public BatchResult ManageBatch() {
+        return new BatchManager(_config, Plan(), _logger).Run();
+    }
+
+    public boolean IsPartitioned() {
+        return _config.CheckParameter(ManagerGrammar.Tags.PARTITIONS.getCode());
+    }
+
+    public PipelineResult ManagePartitions() {
+        return new PartitionManager(_config, Plan(), _logger).Run();
+    }
+
+    /* Makes FormPipeline build one lane of a partitioned input, writing to output (see PartitionManager) */
+    void SetPartition(long firstChunk, long chunks, FileOutputStream output) {
+        _firstChunk = firstChunk;
+        _chunks = chunks;
+        _output = output;
+    }
+
+    /* Serves jobs on a local socket until asked to shut down, see PipelineService */
+    public boolean ManageService(String address, int concurrency) {
+        return new PipelineService(address, concurrency, _logger).Run();
+    }
+
+    /* Checks output against the index a Checksummer kept next to it, on workers threads (see ChecksumVerifier) */
+    public boolean ManageVerify(String output, int workers) {
+        return new ChecksumVerifier(output, workers, _logger).Run();
+    }
+
+    /* The log handler is set up once per process and shared by every Manager, so creating
+     * another Manager does not stack handlers. Records are written asynchronously, see AsyncLogHandler */
     public Logger GetLogger() {
-        Logger logger = Logger.getLogger("Manager");
-        logger.setLevel(Level.ALL);
-        try {
-            FileHandler fh = new FileHandler("Logfile.txt");
-            SimpleFormatter sf = new SimpleFormatter();
-            fh.setFormatter(sf);
-            logger.addHandler(fh);
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, e.getMessage(), e);
+        synchronized (Manager.class) {
+            if (_rootLogger != null)
+                return _rootLogger;
+
+            Logger logger = Logger.getLogger(LOGGER_NAME);
+            logger.setLevel(Level.ALL);
+            logger.setUseParentHandlers(false);
+            ConsoleHandler console = new ConsoleHandler();
+            try {
+                FileHandler fh = new FileHandler("Logfile.txt");
+                SimpleFormatter sf = new SimpleFormatter();
+                fh.setFormatter(sf);
+                logger.addHandler(new AsyncLogHandler(LOG_CAPACITY, fh, console));
+            } catch (IOException e) {
+                logger.addHandler(new AsyncLogHandler(LOG_CAPACITY, console));
+                logger.log(Level.SEVERE, e.getMessage(), e);
+            }
+            _rootLogger = logger;
+            return logger;
         }
-        return logger;
     }
 
+    /* Every stage logs through its own child logger, named after its chain element */
+    static Logger GetStageLogger(String elem) {
+        return Logger.getLogger(LOGGER_NAME + "." + elem);
+    }
+
+    /* On failure the streams opened so far are closed, on success ManageExecution closes them once it is done */
     public boolean FormPipeline() {
-        if(_config.CheckConfig() != RC.CODE_SUCCESS) {
-            _logger.warning("ERROR: Manager config grammar error");
+        if (Form())
+            return true;
+        CloseStreams();
+        return false;
+    }
+
+    private boolean Form() {
+        PipelinePlan plan = Plan();
+        if (plan == null)
             return false;
-        }
-        String[] chain = _config.GetParameter(ManagerGrammar.Tags.CHAIN.getCode())
-                .split(ManagerGrammar.chainDelimiter());
+        _metricsFile = plan.MetricsFile();
+        _metricsPeriod = plan.MetricsPeriod();
+        _stageThreads = plan.StageThreads();
 
         FileInputStream input;
-        FileOutputStream output;
         try {
             input = new FileInputStream(_config.GetParameter(ManagerGrammar.Tags.INPUT.getCode()));
+            _streams.add(input);
         } catch(IOException e) {
             _logger.warning("ERROR: Input stream error in Manager");
             return false;
         }
-        try {
-            output = new FileOutputStream(_config.GetParameter(ManagerGrammar.Tags.OUTPUT.getCode()));
-        } catch(IOException e) {
-            _logger.warning("ERROR: Output stream error in Manager");
-            return false;
-        }
 
-        IPipelineStep prevElement = null;
+        HashMap<PipelinePlan.Element, IPipelineStep> steps = new HashMap<>();
+        HashMap<PipelinePlan.Element, StageMetrics> stepMetrics = new HashMap<>();
+        HashMap<PipelinePlan.Element, ChunkTee> tees = new HashMap<>();
         IPipelineStep curElement;
-        Class castElement;
-        for (String elem : chain) {
-            try {
-                castElement = Class.forName(_config.GetParameter(elem + ManagerGrammar.Tags.NAME.getCode()));
-            } catch(ClassNotFoundException e) {
-                _logger.warning("ERROR: Wrong class name for " + elem);
-                return false;
-            }
-            try {
-                curElement = (IPipelineStep) castElement.getConstructor(_constrParams).
-                        newInstance(_logger);
-            } catch(IllegalAccessException | InstantiationException | NoSuchMethodException | InvocationTargetException e){
+        for (PipelinePlan.Element element : plan.Elements()) {
+            String elem = element.GetName();
+            if ((curElement = plan.NewStage(element, GetStageLogger(elem))) == null) {
                 _logger.warning("ERROR: Instantiation error for " + elem);
                 return false;
             }
+            if (_chunks >= 0 && curElement instanceof PartitionStage)
+                ((PartitionStage) curElement).SetPartition(_firstChunk, _chunks);
+            if (curElement instanceof SidecarStage && !SetSidecar(element, (SidecarStage) curElement))
+                return false;
 
-            if (prevElement != null) {
+            StageMetrics metrics = new StageMetrics(elem);
+            PipelinePlan.Element producer = element.GetProducer();
+            if (producer != null) {
+                IPipelineStep prevElement = steps.get(producer);
                 IConsumer currConsumer = (IConsumer) curElement;
-                if (currConsumer.setProducer((IProducer) prevElement) != RC.CODE_SUCCESS) {
+                ChunkChannel channel = new ChunkChannel((IProducer) prevElement, element.GetType(),
+                        plan.ChannelCapacity(), plan.WaitKind(), plan.WaitTimeoutNanos(), _logger);
+                /* A stage feeding several consumers reports the channel of the first one as its output */
+                if (producer.GetConsumers().get(0) == element)
+                    stepMetrics.get(producer).SetOutput(channel);
+                metrics.SetInput(channel);
+                if (currConsumer.setProducer(channel) != RC.CODE_SUCCESS) {
                     _logger.warning("ERROR: producer setting  error for " + elem);
                     return false;
                 }
 
-                currConsumer.getNotifier();
-                if (prevElement.addNotifier(currConsumer.getNotifier()) != RC.CODE_SUCCESS) {
+                channel.SetConsumerNotifier(currConsumer.getNotifier());
+                INotifier notifier = channel;
+                if (producer.GetConsumers().size() > 1) {
+                    /* The first branch registers the tee with the producer, the others join it */
+                    ChunkTee tee = tees.computeIfAbsent(producer, p -> new ChunkTee());
+                    tee.AddBranch(channel);
+                    notifier = producer.GetConsumers().get(0) == element ? tee : null;
+                }
+                if (notifier != null && prevElement.addNotifier(notifier) != RC.CODE_SUCCESS) {
                     _logger.warning("ERROR: consumer setting  error for " + elem);
                     return false;
                 }
             }
 
-            if(curElement.setConfig(_config.GetParameter
-                    (elem + ManagerGrammar.Tags.CONFIG_PATH.getCode())) != RC.CODE_SUCCESS){
-                _logger.warning("ERROR: config setting  error for " + elem);
-                return false;
-            }
-
             if (elem.equals(ManagerGrammar.Tags.READER.getCode())) {
                 _pipHead = curElement;
                 if(((IReader) curElement).setInputStream(input) != RC.CODE_SUCCESS) {
@@ -112,29 +211,185 @@ public class Manager {
                     return false;
                 }
             }
-            if (elem.equals(ManagerGrammar.Tags.WRITER.getCode())) {
-                if(((IWriter) curElement).setOutputStream(output) != RC.CODE_SUCCESS) {
-                    _logger.warning("ERROR: output stream setting error for " + elem);
-                    return false;
-                }
+            if (element.GetConsumers().isEmpty() && !SetOutput(elem, curElement))
+                return false;
+
+            StageRunner runner = new StageRunner(elem, curElement, metrics, this, GetStageLogger(elem));
+            steps.put(element, curElement);
+            stepMetrics.put(element, metrics);
+            _stageMetrics.add(metrics);
+            _stageRunners.add(runner);
+        }
+        return true;
+    }
+
+    /* Every leaf of the chain is a writer, writing to its own output (see ManagerConfig.OutputOf) */
+    private boolean SetOutput(String elem, IPipelineStep writer) {
+        if (!(writer instanceof IWriter)) {
+            _logger.warning("ERROR: " + elem + " ends the chain but is not a writer");
+            return false;
+        }
+        FileOutputStream output = _output;
+        try {
+            /* The output of a partition lane belongs to PartitionManager */
+            if (output == null) {
+                output = new FileOutputStream(_config.OutputOf(elem));
+                _streams.add(output);
             }
-            prevElement = curElement;
+        } catch(IOException e) {
+            _logger.warning("ERROR: Output stream error in Manager");
+            return false;
+        }
+        if(((IWriter) writer).setOutputStream(output) != RC.CODE_SUCCESS) {
+            _logger.warning("ERROR: output stream setting error for " + elem);
+            return false;
+        }
+        return true;
+    }
 
-            _pipelineThreads.add(new Thread(curElement));
+    /* A sidecar goes next to the output of the writer the stage feeds. Lanes of a partitioned input
+     * share that output, so they cannot keep one each */
+    private boolean SetSidecar(PipelinePlan.Element element, SidecarStage stage) {
+        ArrayList<PipelinePlan.Element> consumers = element.GetConsumers();
+        if (_output != null || consumers.isEmpty() || !consumers.get(0).GetConsumers().isEmpty()) {
+            _logger.warning("ERROR: " + element.GetName() + " must feed a writer with an output of its own");
+            return false;
         }
+        stage.SetOutputPath(_config.OutputOf(consumers.get(0).GetName()));
         return true;
     }
 
-    public void ManageExecution() {
-        for (Thread thread : _pipelineThreads) {
-            thread.start();
+    /* The plan given to this Manager, else the cached one of its config file, else one built for this run only */
+    private PipelinePlan Plan() {
+        if (_plan == null)
+            _plan = _configPath != null ? PipelinePlan.Cached(_configPath, _config, _logger) : PipelinePlan.Build(_config, _logger);
+        return _plan;
+    }
+
+    public PipelineResult ManageExecution() {
+        return ManageExecution(null);
+    }
+
+    /* Runs every stage on a thread of its own, taken from stagePool unless it is null.
+     * Without a pool the threads are platform or virtual ones as STAGE_THREADS says */
+    public PipelineResult ManageExecution(ExecutorService stagePool) {
+        try {
+            return Execute(stagePool);
+        } finally {
+            CloseStreams();
+        }
+    }
+
+    private PipelineResult Execute(ExecutorService stagePool) {
+        _aborted = false;
+        ArrayList<ObjectName> mbeans = RegisterMetrics();
+        ScheduledExecutorService dumper = null;
+        MetricsDump dump = _metricsFile == null ? null : new MetricsDump(_metricsFile, _stageMetrics, _logger);
+        if (dump != null) {
+            dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "Metrics dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dumper.scheduleAtFixedRate(dump, _metricsPeriod, _metricsPeriod, TimeUnit.MILLISECONDS);
+        }
+
+        ArrayList<Future<?>> stages = new ArrayList<>();
+        for (StageRunner runner : _stageRunners) {
+            if (stagePool != null) {
+                stages.add(stagePool.submit(runner));
+            } else {
+                FutureTask<?> stage = new FutureTask<>(runner, null);
+                Thread thread = _stageThreads == null ? new Thread(stage, runner.GetName()) : _stageThreads.newThread(stage);
+                thread.start();
+                stages.add(stage);
+            }
+        }
 
+        for (Future<?> stage : stages) {
             try {
-                thread.join();
+                stage.get();
             } catch (InterruptedException e) {
                 _logger.warning(RC.CODE_SYNCHRONIZATION_ERROR.toString());
+                AbortExecution(null);
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                _logger.log(Level.WARNING, "ERROR: Stage terminated by {0}", e.getCause());
+                AbortExecution(null);
+            }
+        }
+
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dump.run();
+        }
+        UnregisterMetrics(mbeans);
+
+        PipelineResult result = new PipelineResult();
+        for (StageRunner runner : _stageRunners) {
+            RC stageResult = runner.GetResult();
+            result.AddStage(runner.GetName(), stageResult == null ? RC.CODE_SYNCHRONIZATION_ERROR : stageResult);
+        }
+        if (!result.IsSuccessful())
+            _logger.log(Level.WARNING, "ERROR: Pipeline failed: {0}", result);
+        return result;
+    }
+
+    /* Streams are closed once no stage uses them any more, so a batch or service does not run out of descriptors */
+    private void CloseStreams() {
+        for (Closeable stream : _streams) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                _logger.warning("ERROR: Stream closing error in Manager");
+            }
+        }
+        _streams.clear();
+    }
+
+    /* Stage metrics are visible over JMX as KoloskovPipeline:type=Stage,pipeline=<id>,name=<stage> while running */
+    private ArrayList<ObjectName> RegisterMetrics() {
+        ArrayList<ObjectName> names = new ArrayList<>();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (StageMetrics metrics : _stageMetrics) {
+            try {
+                ObjectName name = new ObjectName(METRICS_DOMAIN + ":type=Stage,pipeline=" + _pipelineId +
+                        ",name=" + ObjectName.quote(metrics.GetName()));
+                server.registerMBean(metrics, name);
+                names.add(name);
+            } catch (JMException e) {
+                _logger.warning("ERROR: Metrics registration error for " + metrics.GetName());
+            }
+        }
+        return names;
+    }
+
+    private void UnregisterMetrics(ArrayList<ObjectName> names) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : names) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                _logger.warning("ERROR: Metrics unregistration error for " + name);
             }
         }
     }
+
+    /* Stops every stage still running, so the others do not wait forever for a failed neighbour */
+    void AbortExecution(StageRunner failed) {
+        if (_aborted)
+            return;
+        _aborted = true;
+        if (failed != null)
+            _logger.log(Level.WARNING, "ERROR: Stage {0} failed with {1}", new Object[] {failed.GetName(), failed.GetResult()});
+        for (StageRunner runner : _stageRunners)
+            if (runner != failed)
+                runner.Interrupt();
+    }
+
+    boolean IsAborted() {
+        return _aborted;
+    }
 }
 
@@ -2,6 +2,8 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 
 import ru.spbstu.pipeline.*;
 
@@ -9,6 +11,11 @@ public class ManagerConfig {
     private BufferedReader _fileReader;
     private final HashMap<String, String> _params = new HashMap<>();
 
+    public ManagerConfig() {}
+
+    /* Copy sharing nothing with the original, so it can be changed e.g. per batch input */
+    public ManagerConfig(ManagerConfig other) { _params.putAll(other._params); }
+
     public void AddParameter(String tag, String param) { _params.put(tag, param); }
     public boolean CheckParameter(String tag) { return _params.containsKey(tag); }
     public String GetParameter(String tag) {
@@ -49,18 +56,56 @@ public class ManagerConfig {
                 !CheckParameter(ManagerGrammar.Tags.CHAIN.getCode()))
             return RC.CODE_CONFIG_GRAMMAR_ERROR;
 
-        String[] chain = GetParameter(ManagerGrammar.Tags.CHAIN.getCode()).
-                split(ManagerGrammar.chainDelimiter());
-        if(chain.length < 2 ||
-                !chain[0].equals(ManagerGrammar.Tags.READER.getCode()) ||
-                !chain[chain.length - 1].equals(ManagerGrammar.Tags.WRITER.getCode()))
+        LinkedHashMap<String, String> chain = ChainProducers();
+        if(chain == null || !chain.containsKey(ManagerGrammar.Tags.WRITER.getCode()) ||
+                chain.containsValue(ManagerGrammar.Tags.WRITER.getCode()))
             return RC.CODE_CONFIG_GRAMMAR_ERROR;
 
-        for (String s : chain)
+        HashSet<String> outputs = new HashSet<>();
+        for (String s : chain.keySet()) {
             if (!CheckParameter(s + ManagerGrammar.Tags.NAME.getCode()) ||
                     !CheckParameter(s + ManagerGrammar.Tags.CONFIG_PATH.getCode()))
                 return RC.CODE_CONFIG_GRAMMAR_ERROR;
+            if (!chain.containsValue(s) && !outputs.add(OutputOf(s)))
+                return RC.CODE_CONFIG_GRAMMAR_ERROR;
+        }
 
         return RC.CODE_SUCCESS;
     }
+
+    /* CHAIN is one or more paths separated by commas, e.g. READER->SHIFT_FORMATTER->WRITER,READER->WRITER_2,
+     * each path after the first starting at an element named before. The chain is thus a tree fanning out
+     * from the READER, every element but the READER has one producer and the leaves are writers.
+     * Returns the elements in order of appearance mapped to their producers (null for the READER),
+     * null if CHAIN is not such a tree */
+    public LinkedHashMap<String, String> ChainProducers() {
+        LinkedHashMap<String, String> producers = new LinkedHashMap<>();
+        String[] paths = GetParameter(ManagerGrammar.Tags.CHAIN.getCode()).split(ManagerGrammar.branchDelimiter());
+        for (int i = 0; i < paths.length; i++) {
+            String[] path = paths[i].split(ManagerGrammar.chainDelimiter());
+            if (path.length < 2)
+                return null;
+            if (i == 0) {
+                if (!path[0].equals(ManagerGrammar.Tags.READER.getCode()))
+                    return null;
+                producers.put(path[0], null);
+            } else if (!producers.containsKey(path[0])) {
+                return null;
+            }
+
+            for (int j = 1; j < path.length; j++) {
+                if (!producers.containsKey(path[j]))
+                    producers.put(path[j], path[j - 1]);
+                else if (!path[j - 1].equals(producers.get(path[j])))
+                    return null;
+            }
+        }
+        return producers;
+    }
+
+    /* A writer writes to <element>_OUTPUT if given, else to OUTPUT */
+    public String OutputOf(String element) {
+        String output = GetParameter(element + ManagerGrammar.Tags.OUTPUT_PATH.getCode());
+        return output != null ? output : GetParameter(ManagerGrammar.Tags.OUTPUT.getCode());
+    }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 public class ManagerGrammar {
     private static final String separator = "=";
     private static final String chainSep = "->";
+    private static final String branchSep = ",";
 
     public enum Tags{
         INPUT("INPUT"),
@@ -9,7 +10,16 @@ public class ManagerGrammar {
         WRITER("WRITER"),
         NAME("_NAME"),
         CONFIG_PATH("_CONFIG"),
-        CHAIN("CHAIN");
+        OUTPUT_PATH("_OUTPUT"),
+        CHAIN("CHAIN"),
+        CHANNEL_CAPACITY("CHANNEL_CAPACITY"),
+        WAIT_STRATEGY("WAIT_STRATEGY"),
+        WAIT_TIMEOUT("WAIT_TIMEOUT"),
+        METRICS_FILE("METRICS_FILE"),
+        METRICS_PERIOD("METRICS_PERIOD"),
+        BATCH_CONCURRENCY("BATCH_CONCURRENCY"),
+        STAGE_THREADS("STAGE_THREADS"),
+        PARTITIONS("PARTITIONS");
 
         private final String code;
         Tags(String code){
@@ -21,4 +31,6 @@ public class ManagerGrammar {
     public static String delimiter() { return separator; }
 
     public static String chainDelimiter(){ return chainSep; }
+
+    public static String branchDelimiter(){ return branchSep; }
 }
@@ -0,0 +1,32 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.logging.Logger;
+
+/* Rewrites the metrics file with a snapshot of every stage, one line per stage */
+public class MetricsDump implements Runnable {
+    private final String _path;
+    private final List<StageMetrics> _stages;
+    private final Logger _logger;
+
+    public MetricsDump(String path, List<StageMetrics> stages, Logger logger) {
+        _path = path;
+        _stages = stages;
+        _logger = logger;
+    }
+
+    @Override
+    public void run() {
+        StringBuilder snapshot = new StringBuilder();
+        snapshot.append("time=").append(System.currentTimeMillis()).append('\n');
+        for (StageMetrics stage : _stages) {
+            snapshot.append(stage).append('\n');
+        }
+        try (Writer writer = new FileWriter(_path)) {
+            writer.write(snapshot.toString());
+        } catch (IOException e) {
+            _logger.warning("ERROR: Metrics dump error: " + e.getMessage());
+        }
+    }
+}
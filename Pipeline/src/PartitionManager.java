@@ -0,0 +1,130 @@
+import ru.spbstu.pipeline.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/* Runs the chain of one manager config over a single large input split into PARTITIONS ranges of whole
+ * chunks (the reader's BUFFER_SIZE), one independent Reader->...->Writer lane per range. Lanes share one
+ * descriptor of the output file and write at the position their first chunk has in the sequential output,
+ * so the result is the same file. Every stage in between must map each chunk to a product of its own, so
+ * stages such as Compressor whose products vary in size are rejected (see PartitionStage) */
+public class PartitionManager {
+    private final ManagerConfig _config;
+    private final PipelinePlan _plan;
+    private final Logger _logger;
+
+    public PartitionManager(ManagerConfig config, PipelinePlan plan, Logger logger) {
+        _config = config;
+        _plan = plan;
+        _logger = logger;
+    }
+
+    /* Results of the stages of every lane, named <lane>.<stage> */
+    public PipelineResult Run() {
+        PipelineResult result = new PipelineResult();
+        if (_plan == null) {
+            return result;
+        }
+        int partitions;
+        try {
+            partitions = Integer.parseInt(_config.GetParameter(ManagerGrammar.Tags.PARTITIONS.getCode()));
+        } catch (NumberFormatException e) {
+            partitions = 0;
+        }
+        if (partitions < 1) {
+            _logger.warning("ERROR: Invalid partitions in Manager config");
+            return result;
+        }
+
+        if (_plan.IsBranching()) {
+            _logger.warning("ERROR: Partitioned runs need a chain without fan-out");
+            return result;
+        }
+        ArrayList<PipelinePlan.Element> elements = _plan.Elements();
+        IPipelineStep reader = elements.get(0).GetPrototype();
+        IPipelineStep writer = elements.get(elements.size() - 1).GetPrototype();
+        if (!(reader instanceof PartitionStage) || ((PartitionStage) reader).ChunkSize() < 1 ||
+                !(writer instanceof PartitionStage)) {
+            _logger.warning("ERROR: Reader and writer of the chain cannot be partitioned");
+            return result;
+        }
+        for (int i = 1; i < elements.size() - 1; i++) {
+            if (!(elements.get(i).GetPrototype() instanceof PartitionStage)) {
+                _logger.warning("ERROR: " + elements.get(i).GetName() + " does not keep products of a fixed size, the chain cannot be partitioned");
+                return result;
+            }
+        }
+        long chunkSize = ((PartitionStage) reader).ChunkSize();
+        long chunks = (new File(_config.GetParameter(ManagerGrammar.Tags.INPUT.getCode())).length() + chunkSize - 1) / chunkSize;
+        int lanes = (int) Math.max(Math.min(partitions, chunks), 1);
+
+        ThreadFactory virtualThreads = _plan.StageThreads();
+        ExecutorService stages = virtualThreads != null ? null : Executors.newCachedThreadPool(DaemonThreads("Partition stage"));
+        ExecutorService pipelines = Executors.newFixedThreadPool(lanes,
+                virtualThreads != null ? virtualThreads : DaemonThreads("Partition lane"));
+        try (RandomAccessFile output = new RandomAccessFile(_config.GetParameter(ManagerGrammar.Tags.OUTPUT.getCode()), "rw")) {
+            output.setLength(0);
+            ArrayList<Future<PipelineResult>> results = new ArrayList<>();
+            for (int lane = 0; lane < lanes; lane++) {
+                long firstChunk = chunks * lane / lanes;
+                long laneChunks = chunks * (lane + 1) / lanes - firstChunk;
+                FileOutputStream laneOutput = new FileOutputStream(output.getFD());
+                results.add(pipelines.submit(() -> {
+                    Manager manager = new Manager(_config, _plan);
+                    manager.SetPartition(firstChunk, laneChunks, laneOutput);
+                    return manager.FormPipeline() ? manager.ManageExecution(stages) : null;
+                }));
+            }
+
+            for (int lane = 0; lane < lanes; lane++) {
+                PipelineResult laneResult;
+                try {
+                    laneResult = results.get(lane).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    _logger.log(Level.WARNING, "ERROR: Partition lane terminated by {0}", e.getCause());
+                    laneResult = null;
+                }
+                if (laneResult == null) {
+                    result.AddStage(lane + ".LANE", RC.CODE_FAILED_PIPELINE_CONSTRUCTION);
+                    continue;
+                }
+                for (int i = 0; i < laneResult.StagesNumber(); i++)
+                    result.AddStage(lane + "." + laneResult.GetStage(i), laneResult.GetResult(i));
+            }
+        } catch (IOException e) {
+            _logger.warning("ERROR: Output stream error in Manager");
+            result.AddStage("OUTPUT", RC.CODE_INVALID_OUTPUT_STREAM);
+        } finally {
+            pipelines.shutdownNow();
+            if (stages != null)
+                stages.shutdownNow();
+        }
+
+        if (!result.IsSuccessful())
+            _logger.log(Level.WARNING, "ERROR: Partitioned run failed: {0}", result);
+        return result;
+    }
+
+    private static ThreadFactory DaemonThreads(String name) {
+        AtomicInteger number = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + " " + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
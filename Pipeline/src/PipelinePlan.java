@@ -0,0 +1,280 @@
+import ru.spbstu.pipeline.*;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/* Everything FormPipeline derives from a manager config apart from INPUT and OUTPUT: manager options,
+ * stage constructors, configured prototypes of the stages, fusion and the types negotiated between
+ * neighbours. Built once, it instantiates fresh pipelines without class lookups or, for CopyableStage
+ * stages, config file parsing. Plans of config files are cached until one of the files changes */
+public class PipelinePlan {
+    private static final int DEFAULT_CHANNEL_CAPACITY = 64;
+    private static final long DEFAULT_METRICS_PERIOD = 1000;
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(void.class, Logger.class);
+    private static final MethodType STAGE_TYPE = MethodType.methodType(IPipelineStep.class, Logger.class);
+    private static final ConcurrentHashMap<String, PipelinePlan> _cache = new ConcurrentHashMap<>();
+
+    /* One link of the chain together with the stages fused into it */
+    static class Element {
+        final String _name;
+        final MethodHandle _constructor;
+        final String _configPath;
+        final IPipelineStep _prototype;
+        final ArrayList<Element> _fused = new ArrayList<>();
+        final ArrayList<Element> _consumers = new ArrayList<>();
+        Element _producer;
+        TYPE _type;
+
+        Element(String name, MethodHandle constructor, String configPath, IPipelineStep prototype) {
+            _name = name;
+            _constructor = constructor;
+            _configPath = configPath;
+            _prototype = prototype;
+        }
+
+        String GetName() { return _name; }
+        TYPE GetType() { return _type; }
+        IPipelineStep GetPrototype() { return _prototype; }
+        Element GetProducer() { return _producer; }
+        ArrayList<Element> GetConsumers() { return _consumers; }
+    }
+
+    private final ArrayList<Element> _elements = new ArrayList<>();
+    private final HashMap<String, Long> _configTimes = new HashMap<>();
+    private int _channelCapacity = DEFAULT_CHANNEL_CAPACITY;
+    private WaitStrategy.Kind _waitKind = WaitStrategy.Kind.PARK;
+    private long _waitTimeoutNanos;
+    private String _metricsFile;
+    private long _metricsPeriod = DEFAULT_METRICS_PERIOD;
+    private ThreadFactory _stageThreads;
+
+    private PipelinePlan() {}
+
+    /* Every element comes after its producer */
+    ArrayList<Element> Elements() { return _elements; }
+    public int ChannelCapacity() { return _channelCapacity; }
+    public WaitStrategy.Kind WaitKind() { return _waitKind; }
+    public long WaitTimeoutNanos() { return _waitTimeoutNanos; }
+    public String MetricsFile() { return _metricsFile; }
+    public long MetricsPeriod() { return _metricsPeriod; }
+    public ThreadFactory StageThreads() { return _stageThreads; }
+
+    /* Plan of the config file at configPath, parsed into config. Returns null if the plan cannot be built */
+    public static PipelinePlan Cached(String configPath, ManagerConfig config, Logger logger) {
+        String key = new File(configPath).getAbsolutePath();
+        PipelinePlan plan = _cache.get(key);
+        if (plan != null && plan.IsUpToDate()) {
+            return plan;
+        }
+        plan = Build(config, logger);
+        if (plan != null) {
+            plan._configTimes.put(key, new File(key).lastModified());
+            _cache.put(key, plan);
+        }
+        return plan;
+    }
+
+    /* Returns null if the config does not describe a valid chain, after logging why */
+    public static PipelinePlan Build(ManagerConfig config, Logger logger) {
+        if (config.CheckConfig() != RC.CODE_SUCCESS) {
+            logger.warning("ERROR: Manager config grammar error");
+            return null;
+        }
+        PipelinePlan plan = new PipelinePlan();
+        if (!plan.ParseOptions(config, logger)) {
+            return null;
+        }
+
+        LinkedHashMap<String, String> producers = config.ChainProducers();
+        HashMap<String, Integer> consumers = new HashMap<>();
+        for (String producer : producers.values()) {
+            if (producer != null) {
+                consumers.merge(producer, 1, Integer::sum);
+            }
+        }
+        /* The element holding each element of the chain, itself or the one it is fused into */
+        HashMap<String, Element> holders = new HashMap<>();
+        for (Map.Entry<String, String> link : producers.entrySet()) {
+            String elem = link.getKey();
+            Element prev = link.getValue() == null ? null : holders.get(link.getValue());
+            MethodHandle constructor;
+            try {
+                Class<?> castElement = Class.forName(config.GetParameter(elem + ManagerGrammar.Tags.NAME.getCode()));
+                constructor = MethodHandles.publicLookup().findConstructor(castElement, CONSTRUCTOR_TYPE).asType(STAGE_TYPE);
+            } catch (ClassNotFoundException e) {
+                logger.warning("ERROR: Wrong class name for " + elem);
+                return null;
+            } catch (NoSuchMethodException | IllegalAccessException | ClassCastException | IllegalArgumentException e) {
+                logger.warning("ERROR: Instantiation error for " + elem);
+                return null;
+            }
+
+            String configPath = config.GetParameter(elem + ManagerGrammar.Tags.CONFIG_PATH.getCode());
+            IPipelineStep prototype = Instantiate(elem, constructor, configPath, Manager.GetStageLogger(elem), logger);
+            if (prototype == null) {
+                return null;
+            }
+            if (configPath != null) {
+                plan._configTimes.put(configPath, new File(configPath).lastModified());
+            }
+            Element element = new Element(elem, constructor, configPath, prototype);
+
+            /* Only a stage feeding nothing else may absorb its consumer */
+            if (prev != null && consumers.get(link.getValue()) == 1 && prev._prototype instanceof FusableStage &&
+                    ((FusableStage) prev._prototype).Fuse(prototype)) {
+                logger.info(elem + " is fused into the previous stage");
+                prev._fused.add(element);
+                holders.put(elem, prev);
+                continue;
+            }
+            if (prev != null) {
+                if (!(prev._prototype instanceof IProducer) || !(prototype instanceof IConsumer)) {
+                    logger.warning("ERROR: " + link.getValue() + " cannot feed " + elem);
+                    return null;
+                }
+                /* Branches of a fan-out share the chunks, so they all take the type the first one took */
+                TYPE type = prev._consumers.isEmpty() ? null : prev._consumers.get(0)._type;
+                ChunkChannel probe = new ChunkChannel((IProducer) prev._prototype, type, 1, plan._waitKind, 0, logger);
+                if (((IConsumer) prototype).setProducer(probe) != RC.CODE_SUCCESS) {
+                    logger.warning("ERROR: producer setting  error for " + elem);
+                    return null;
+                }
+                element._type = probe.Type();
+                element._producer = prev;
+                prev._consumers.add(element);
+            }
+            plan._elements.add(element);
+            holders.put(elem, element);
+        }
+        return plan;
+    }
+
+    /* Whether some stage feeds several consumers */
+    public boolean IsBranching() {
+        for (Element element : _elements) {
+            if (element._consumers.size() > 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* A fresh stage of the element, configured and with the stages fused into it. Returns null on failure */
+    IPipelineStep NewStage(Element element, Logger stageLogger) {
+        if (element._prototype instanceof CopyableStage) {
+            return ((CopyableStage) element._prototype).Copy(stageLogger);
+        }
+        IPipelineStep stage = Instantiate(element._name, element._constructor, element._configPath, stageLogger, stageLogger);
+        if (stage == null) {
+            return null;
+        }
+        for (Element fused : element._fused) {
+            IPipelineStep next = NewStage(fused, Manager.GetStageLogger(fused._name));
+            if (next == null || !((FusableStage) stage).Fuse(next)) {
+                stageLogger.warning("ERROR: Fusion error for " + fused._name);
+                return null;
+            }
+        }
+        return stage;
+    }
+
+    private static IPipelineStep Instantiate(String name, MethodHandle constructor, String configPath,
+                                             Logger stageLogger, Logger logger) {
+        IPipelineStep stage;
+        try {
+            stage = (IPipelineStep) constructor.invokeExact(stageLogger);
+        } catch (Throwable e) {
+            logger.warning("ERROR: Instantiation error for " + name);
+            return null;
+        }
+        if (stage.setConfig(configPath) != RC.CODE_SUCCESS) {
+            logger.warning("ERROR: config setting  error for " + name);
+            return null;
+        }
+        return stage;
+    }
+
+    private boolean IsUpToDate() {
+        for (Map.Entry<String, Long> config : _configTimes.entrySet()) {
+            if (new File(config.getKey()).lastModified() != config.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean ParseOptions(ManagerConfig config, Logger logger) {
+        if (config.CheckParameter(ManagerGrammar.Tags.CHANNEL_CAPACITY.getCode())) {
+            try {
+                _channelCapacity = Integer.parseInt(config.GetParameter(ManagerGrammar.Tags.CHANNEL_CAPACITY.getCode()));
+            } catch (NumberFormatException e) {
+                _channelCapacity = 0;
+            }
+            if (_channelCapacity < 1) {
+                logger.warning("ERROR: Invalid channel capacity in Manager config");
+                return false;
+            }
+        }
+        if (config.CheckParameter(ManagerGrammar.Tags.WAIT_STRATEGY.getCode())) {
+            _waitKind = WaitStrategy.ParseKind(config.GetParameter(ManagerGrammar.Tags.WAIT_STRATEGY.getCode()));
+            if (_waitKind == null) {
+                logger.warning("ERROR: Invalid wait strategy in Manager config");
+                return false;
+            }
+        }
+        if (config.CheckParameter(ManagerGrammar.Tags.WAIT_TIMEOUT.getCode())) {
+            long waitTimeout;
+            try {
+                waitTimeout = Long.parseLong(config.GetParameter(ManagerGrammar.Tags.WAIT_TIMEOUT.getCode()));
+            } catch (NumberFormatException e) {
+                waitTimeout = -1;
+            }
+            if (waitTimeout < 0) {
+                logger.warning("ERROR: Invalid wait timeout in Manager config");
+                return false;
+            }
+            _waitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(waitTimeout);
+        }
+        if (config.CheckParameter(ManagerGrammar.Tags.STAGE_THREADS.getCode())) {
+            StageThreads.Kind threadsKind = StageThreads.ParseKind(config.GetParameter(ManagerGrammar.Tags.STAGE_THREADS.getCode()));
+            if (threadsKind == null) {
+                logger.warning("ERROR: Invalid stage threads in Manager config");
+                return false;
+            }
+            if (threadsKind == StageThreads.Kind.VIRTUAL) {
+                if ((_stageThreads = StageThreads.VirtualFactory()) == null) {
+                    logger.warning("ERROR: Virtual stage threads are not supported by this JVM");
+                    return false;
+                }
+                if (_waitKind == WaitStrategy.Kind.SPIN) {
+                    logger.warning("ERROR: SPIN wait strategy would hold the carrier threads of virtual stage threads");
+                    return false;
+                }
+            }
+        }
+
+        _metricsFile = config.GetParameter(ManagerGrammar.Tags.METRICS_FILE.getCode());
+        if (config.CheckParameter(ManagerGrammar.Tags.METRICS_PERIOD.getCode())) {
+            try {
+                _metricsPeriod = Long.parseLong(config.GetParameter(ManagerGrammar.Tags.METRICS_PERIOD.getCode()));
+            } catch (NumberFormatException e) {
+                _metricsPeriod = 0;
+            }
+            if (_metricsPeriod < 1) {
+                logger.warning("ERROR: Invalid metrics period in Manager config");
+                return false;
+            }
+        }
+        return true;
+    }
+}
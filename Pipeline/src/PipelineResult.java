@@ -0,0 +1,37 @@
+import ru.spbstu.pipeline.*;
+
+import java.util.ArrayList;
+
+public class PipelineResult {
+    private final ArrayList<String> _stages = new ArrayList<>();
+    private final ArrayList<RC> _results = new ArrayList<>();
+
+    public void AddStage(String stage, RC result) {
+        _stages.add(stage);
+        _results.add(result);
+    }
+
+    public int StagesNumber() { return _stages.size(); }
+    public String GetStage(int i) { return _stages.get(i); }
+    public RC GetResult(int i) { return _results.get(i); }
+
+    public boolean IsSuccessful() {
+        if (_results.isEmpty())
+            return false;
+        for (RC result : _results)
+            if (result != RC.CODE_SUCCESS)
+                return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < _stages.size(); i++) {
+            if (i != 0)
+                report.append(", ");
+            report.append(_stages.get(i)).append('=').append(_results.get(i));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,264 @@
+import ru.spbstu.pipeline.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.Principal;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/* Long-running Manager serving jobs over a Unix domain socket (Java 16+), so stage classes stay loaded and
+ * JIT-compiled and plans (see PipelinePlan), their chunk pools and stage threads are reused between jobs.
+ * Jobs read and write files as the service account, so only that account may connect: the socket is bound
+ * in an owner-only directory and made owner-only before it is moved to its address and, where the JVM
+ * reports peer credentials (Linux), other users are turned away.
+ * Every request line is "<manager config>\t<input>\t<output>", input and output replacing the ones of
+ * the config, or "SHUTDOWN". Each job is answered with "ACCEPTED <id>", "RUNNING <id>" once one of
+ * the job slots is free and finally "DONE <id> <stage results>" or "FAILED <id> <reason>" */
+public class PipelineService {
+    private static final String FIELD_SEPARATOR = "\t";
+    private static final String SHUTDOWN = "SHUTDOWN";
+
+    private final String _address;
+    private final int _concurrency;
+    private final Logger _logger;
+    private final AtomicInteger _jobIds = new AtomicInteger();
+    private ServerSocketChannel _server;
+    private ExecutorService _jobs;
+    private ExecutorService _stages;
+
+    /* At most concurrency jobs run at once, the others wait for a slot */
+    public PipelineService(String address, int concurrency, Logger logger) {
+        _address = address;
+        _concurrency = concurrency;
+        _logger = logger;
+    }
+
+    /* Serves until a SHUTDOWN request. Returns false if the service could not start */
+    public boolean Run() {
+        if (_concurrency < 1) {
+            _logger.warning("ERROR: Invalid service concurrency");
+            return false;
+        }
+        File socketFile = new File(_address);
+        try {
+            if (socketFile.exists() && !socketFile.delete()) {
+                _logger.warning("ERROR: Stale service socket cannot be removed");
+                return false;
+            }
+            _server = OpenUnixServer(socketFile);
+            if (_server == null) {
+                _logger.warning("ERROR: The service needs Unix domain sockets, available since Java 16");
+                return false;
+            }
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            _logger.log(Level.WARNING, "ERROR: Service socket error: {0}", e.getMessage());
+            return false;
+        }
+        _logger.log(Level.INFO, "Service is listening on {0}", _address);
+
+        _jobs = Executors.newFixedThreadPool(_concurrency, DaemonThreads("Service job"));
+        _stages = Executors.newCachedThreadPool(DaemonThreads("Service stage"));
+        ExecutorService connections = Executors.newCachedThreadPool(DaemonThreads("Service connection"));
+        try {
+            while (true) {
+                SocketChannel client = _server.accept();
+                connections.execute(() -> Serve(client));
+            }
+        } catch (ClosedChannelException e) {
+            _logger.info("Service is shut down");
+        } catch (IOException e) {
+            _logger.log(Level.WARNING, "ERROR: Service socket error: {0}", e.getMessage());
+        } finally {
+            Close();
+            connections.shutdownNow();
+            _jobs.shutdownNow();
+            _stages.shutdownNow();
+            if (!socketFile.delete()) {
+                _logger.warning("ERROR: Service socket file is left behind");
+            }
+        }
+        return true;
+    }
+
+    private void Serve(SocketChannel client) {
+        if (!IsOwnPeer(client)) {
+            _logger.warning("ERROR: Service connection of another user is refused");
+            try {
+                client.close();
+            } catch (IOException e) {
+                _logger.log(Level.WARNING, "ERROR: Service connection error: {0}", e.getMessage());
+            }
+            return;
+        }
+        try (SocketChannel channel = client;
+             BufferedReader requests = new BufferedReader(
+                     new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+             Writer replies = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8)) {
+            String request;
+            while ((request = requests.readLine()) != null) {
+                if (request.trim().equals(SHUTDOWN)) {
+                    Close();
+                    return;
+                }
+                if (!request.trim().isEmpty()) {
+                    RunJob(request, replies);
+                }
+            }
+        } catch (IOException e) {
+            _logger.log(Level.WARNING, "ERROR: Service connection error: {0}", e.getMessage());
+        }
+    }
+
+    private void RunJob(String request, Writer replies) throws IOException {
+        int id = _jobIds.incrementAndGet();
+        String[] fields = request.split(FIELD_SEPARATOR);
+        if (fields.length != 3) {
+            Reply(replies, "FAILED " + id + " expected <manager config>\\t<input>\\t<output>");
+            return;
+        }
+        Reply(replies, "ACCEPTED " + id);
+
+        Future<String> job = _jobs.submit(() -> {
+            Reply(replies, "RUNNING " + id);
+            return Execute(fields[0], fields[1], fields[2]);
+        });
+        String result;
+        try {
+            result = job.get();
+        } catch (InterruptedException e) {
+            job.cancel(true);
+            Thread.currentThread().interrupt();
+            result = "FAILED service is shutting down";
+        } catch (ExecutionException e) {
+            result = "FAILED " + e.getCause();
+        }
+        _logger.log(Level.INFO, "Service job {0} ({1}): {2}", new Object[] {id, fields[1], result});
+        int status = result.indexOf(' ');
+        Reply(replies, result.substring(0, status) + " " + id + result.substring(status));
+    }
+
+    /* Returns "DONE <stage results>" or "FAILED <reason>" */
+    private String Execute(String configPath, String input, String output) {
+        ManagerConfig config = new ManagerConfig();
+        if (config.SetFile(configPath) != RC.CODE_SUCCESS || config.ParseConfig() != RC.CODE_SUCCESS) {
+            return "FAILED manager config " + configPath + " cannot be read";
+        }
+        PipelinePlan plan = PipelinePlan.Cached(configPath, config, _logger);
+        if (plan == null) {
+            return "FAILED manager config " + configPath + " does not describe a valid chain";
+        }
+
+        ManagerConfig job = new ManagerConfig(config);
+        job.AddParameter(ManagerGrammar.Tags.INPUT.getCode(), input);
+        job.AddParameter(ManagerGrammar.Tags.OUTPUT.getCode(), output);
+        Manager manager = new Manager(job, plan);
+        if (!manager.FormPipeline()) {
+            return "FAILED FAILED_PIPELINE_CONSTRUCTION";
+        }
+        PipelineResult result = manager.ManageExecution(plan.StageThreads() == null ? _stages : null);
+        return (result.IsSuccessful() ? "DONE " : "FAILED ") + result;
+    }
+
+    private static void Reply(Writer replies, String reply) throws IOException {
+        replies.write(reply);
+        replies.write('\n');
+        replies.flush();
+    }
+
+    private void Close() {
+        try {
+            _server.close();
+        } catch (IOException e) {
+            _logger.log(Level.WARNING, "ERROR: Service socket error: {0}", e.getMessage());
+        }
+    }
+
+    /* Whether the peer runs as the user of the service. The check uses jdk.net SO_PEERCRED (Java 16+, Linux)
+     * and passes only where the option is absent, the owner-only socket file then being the only guard.
+     * Where it is present, credentials that cannot be read turn the peer away */
+    private static boolean IsOwnPeer(SocketChannel client) {
+        Object peerCredentials;
+        try {
+            peerCredentials = Class.forName("jdk.net.ExtendedSocketOptions").getField("SO_PEERCRED").get(null);
+        } catch (ReflectiveOperationException e) {
+            return true;
+        }
+        if (!client.supportedOptions().contains(peerCredentials)) {
+            return true;
+        }
+        try {
+            Object principal = SocketChannel.class.getMethod("getOption", SocketOption.class)
+                    .invoke(client, peerCredentials);
+            principal = principal.getClass().getMethod("user").invoke(principal);
+            return principal != null && ((Principal) principal).getName().equals(System.getProperty("user.name"));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /* UnixDomainSocketAddress and StandardProtocolFamily.UNIX only exist since Java 16. A socket takes
+     * the permissions of the umask when bound, so it is bound in a fresh owner-only directory next to its
+     * address, made owner-only there and only then moved to its address, where no other user could
+     * connect to it in between */
+    private static ServerSocketChannel OpenUnixServer(File socketFile) throws IOException {
+        Method addressOf;
+        ServerSocketChannel server;
+        try {
+            ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class);
+            server = (ServerSocketChannel) ServerSocketChannel.class
+                    .getMethod("open", ProtocolFamily.class).invoke(null, unix);
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            return null;
+        }
+
+        Path directory = Files.createTempDirectory(socketFile.getAbsoluteFile().getParentFile().toPath(),
+                ".service", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        Path bound = directory.resolve(socketFile.getName());
+        try {
+            server.bind((SocketAddress) addressOf.invoke(null, bound));
+            Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+            Files.move(bound, socketFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return server;
+        } catch (ReflectiveOperationException | IOException | RuntimeException e) {
+            server.close();
+            Files.deleteIfExists(bound);
+            throw e instanceof IOException ? (IOException) e : new IOException(e.toString(), e);
+        } finally {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static ThreadFactory DaemonThreads(String name) {
+        AtomicInteger number = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + " " + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
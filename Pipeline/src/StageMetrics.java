@@ -0,0 +1,144 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/* Counters of one stage, collected by the Manager from outside so that foreign stages are covered too.
+ * Input is the channel in front of the stage, output the one behind it, either may be absent.
+ * Busy time is the stage thread run time minus both waits, cpu time and allocation come from the JVM
+ * and cover the stage thread only (not e.g. Executor workers) since Start, -1 where the JVM does not support them.
+ * A pooled stage thread has run other stages before, so its counters are taken relative to Start */
+public class StageMetrics implements StageMetricsMBean {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final String _name;
+    private ChunkChannel _input;
+    private ChunkChannel _output;
+
+    private volatile Thread _thread;
+    private volatile long _startTime;
+    private volatile long _endTime;
+    private volatile long _cpuNanos = -1;
+    private volatile long _allocatedBytes = -1;
+    private long _cpuStart;
+    private long _allocatedStart;
+
+    public StageMetrics(String name) {
+        _name = name;
+    }
+
+    public String GetName() { return _name; }
+
+    public void SetInput(ChunkChannel input) { _input = input; }
+
+    public void SetOutput(ChunkChannel output) { _output = output; }
+
+    /* Called by the stage thread around its run, so thread counters survive the thread */
+    public void Start() {
+        Thread thread = Thread.currentThread();
+        _cpuStart = CpuNanos(thread);
+        _allocatedStart = AllocatedBytes(thread);
+        /* Published after the baselines, which readers see once they see the thread */
+        _thread = thread;
+        _startTime = System.nanoTime();
+    }
+
+    public void Finish() {
+        _cpuNanos = CpuSinceStart();
+        _allocatedBytes = AllocatedSinceStart();
+        _endTime = System.nanoTime();
+    }
+
+    @Override
+    public long getChunksIn() { return _input == null ? 0 : _input.ChunksTaken(); }
+
+    @Override
+    public long getBytesIn() { return _input == null ? 0 : _input.BytesTaken(); }
+
+    @Override
+    public long getChunksOut() { return _output == null ? 0 : _output.ChunksPut(); }
+
+    @Override
+    public long getBytesOut() { return _output == null ? 0 : _output.BytesPut(); }
+
+    @Override
+    public int getInputDepth() { return _input == null ? 0 : _input.Ring().Size(); }
+
+    @Override
+    public int getOutputDepth() { return _output == null ? 0 : _output.Ring().Size(); }
+
+    @Override
+    public long getInputWaitNanos() { return _input == null ? 0 : _input.Ring().ConsumerWaitNanos(); }
+
+    @Override
+    public long getOutputWaitNanos() { return _output == null ? 0 : _output.Ring().ProducerWaitNanos(); }
+
+    @Override
+    public long getBusyNanos() {
+        long start = _startTime;
+        if (start == 0) {
+            return 0;
+        }
+        long end = _endTime != 0 ? _endTime : System.nanoTime();
+        return Math.max(end - start - getInputWaitNanos() - getOutputWaitNanos(), 0);
+    }
+
+    @Override
+    public long getCpuNanos() { return _endTime != 0 ? _cpuNanos : CpuSinceStart(); }
+
+    @Override
+    public long getAllocatedBytes() { return _endTime != 0 ? _allocatedBytes : AllocatedSinceStart(); }
+
+    @Override
+    public long getChunkBytesP50() { return _output == null ? 0 : _output.ChunkBytes().Percentile(0.5); }
+
+    @Override
+    public long getChunkBytesP99() { return _output == null ? 0 : _output.ChunkBytes().Percentile(0.99); }
+
+    @Override
+    public long getHandoffNanosP50() { return _output == null ? 0 : _output.HandoffNanos().Percentile(0.5); }
+
+    @Override
+    public long getHandoffNanosP99() { return _output == null ? 0 : _output.HandoffNanos().Percentile(0.99); }
+
+    @Override
+    public long getHandoffNanosMax() { return _output == null ? 0 : _output.HandoffNanos().Max(); }
+
+    private long CpuSinceStart() {
+        Thread thread = _thread;
+        long now = CpuNanos(thread);
+        return now < 0 || _cpuStart < 0 ? -1 : now - _cpuStart;
+    }
+
+    private long AllocatedSinceStart() {
+        Thread thread = _thread;
+        long now = AllocatedBytes(thread);
+        return now < 0 || _allocatedStart < 0 ? -1 : now - _allocatedStart;
+    }
+
+    private static long CpuNanos(Thread thread) {
+        if (thread == null || !THREADS.isThreadCpuTimeSupported()) {
+            return -1;
+        }
+        return thread == Thread.currentThread() ?
+                THREADS.getCurrentThreadCpuTime() : THREADS.getThreadCpuTime(thread.getId());
+    }
+
+    private static long AllocatedBytes(Thread thread) {
+        if (thread == null || !(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(thread.getId());
+    }
+
+    @Override
+    public String toString() {
+        return _name +
+                " chunksIn=" + getChunksIn() + " bytesIn=" + getBytesIn() +
+                " chunksOut=" + getChunksOut() + " bytesOut=" + getBytesOut() +
+                " inputDepth=" + getInputDepth() + " outputDepth=" + getOutputDepth() +
+                " inputWaitNs=" + getInputWaitNanos() + " outputWaitNs=" + getOutputWaitNanos() +
+                " busyNs=" + getBusyNanos() + " cpuNs=" + getCpuNanos() + " allocatedBytes=" + getAllocatedBytes() +
+                " chunkBytesP50=" + getChunkBytesP50() + " chunkBytesP99=" + getChunkBytesP99() +
+                " handoffNsP50=" + getHandoffNanosP50() + " handoffNsP99=" + getHandoffNanosP99() +
+                " handoffNsMax=" + getHandoffNanosMax();
+    }
+}
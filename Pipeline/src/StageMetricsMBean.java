@@ -0,0 +1,23 @@
+/* JMX view of a pipeline stage. Chunk and byte counts and waits are taken from the channels around
+ * the stage, so a stage reading its input any other way than from the channel ring reports no input wait */
+public interface StageMetricsMBean {
+    long getChunksIn();
+    long getBytesIn();
+    long getChunksOut();
+    long getBytesOut();
+
+    int getInputDepth();
+    int getOutputDepth();
+
+    long getInputWaitNanos();
+    long getOutputWaitNanos();
+    long getBusyNanos();
+    long getCpuNanos();
+    long getAllocatedBytes();
+
+    long getChunkBytesP50();
+    long getChunkBytesP99();
+    long getHandoffNanosP50();
+    long getHandoffNanosP99();
+    long getHandoffNanosMax();
+}
@@ -0,0 +1,95 @@
+import ru.spbstu.pipeline.*;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class StageRunner implements Runnable {
+    private static final String RESULT_GETTER = "getResult";
+
+    private final String _name;
+    private final IPipelineStep _step;
+    private final StageMetrics _metrics;
+    private final Method _resultGetter;
+    private final Logger _logger;
+    private final Manager _manager;
+
+    private volatile RC _result;
+    private Thread _thread;
+
+    public StageRunner(String name, IPipelineStep step, StageMetrics metrics, Manager manager, Logger logger) {
+        _name = name;
+        _step = step;
+        _metrics = metrics;
+        _manager = manager;
+        _logger = logger;
+        _resultGetter = FindResultGetter(step);
+    }
+
+    /* Stages may optionally expose "public RC getResult()" to report how their run ended */
+    private static Method FindResultGetter(IPipelineStep step) {
+        try {
+            Method getter = step.getClass().getMethod(RESULT_GETTER);
+            return getter.getReturnType() == RC.class ? getter : null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public String GetName() { return _name; }
+
+    public RC GetResult() { return _result; }
+
+    /* Interrupts the stage if it is running. A pooled thread is only interrupted while it runs this stage */
+    public synchronized void Interrupt() {
+        if (_thread != null)
+            _thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        Thread thread = Thread.currentThread();
+        String threadName = thread.getName();
+        thread.setName(_name);
+        synchronized (this) {
+            _thread = thread;
+        }
+
+        RC result;
+        _metrics.Start();
+        try {
+            if (_manager.IsAborted()) {
+                result = RC.CODE_SYNCHRONIZATION_ERROR;
+            } else {
+                _step.run();
+                result = QueryResult();
+            }
+        } catch (RuntimeException e) {
+            _logger.log(Level.WARNING, "ERROR: Stage {0} terminated by {1}", new Object[] {_name, e});
+            result = RC.CODE_SYNCHRONIZATION_ERROR;
+        } finally {
+            _metrics.Finish();
+            synchronized (this) {
+                _thread = null;
+            }
+            thread.setName(threadName);
+        }
+
+        _result = result;
+        if (result != RC.CODE_SUCCESS)
+            _manager.AbortExecution(this);
+    }
+
+    private RC QueryResult() {
+        if (_resultGetter == null)
+            return RC.CODE_SUCCESS;
+        try {
+            RC result = (RC) _resultGetter.invoke(_step);
+            return result == null ? RC.CODE_SUCCESS : result;
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            _logger.log(Level.WARNING, "ERROR: Result query error for {0}", _name);
+            return RC.CODE_SUCCESS;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+import java.util.concurrent.ThreadFactory;
+
+/* Kind of threads the stages of a pipeline run on. Virtual threads only exist since Java 21, so they are
+ * looked up reflectively and the project still builds for Java 8. Stage waits park through LockSupport
+ * (see WaitStrategy) and never block inside synchronized, so a waiting stage releases its carrier thread */
+public class StageThreads {
+    public enum Kind {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    private static final String VIRTUAL_PREFIX = "Virtual stage ";
+    private static ThreadFactory _virtualFactory;
+    private static boolean _isLookedUp;
+
+    public static Kind ParseKind(String kind) {
+        try {
+            return Kind.valueOf(kind.trim());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return null;
+        }
+    }
+
+    /* Factory of virtual threads, or null if the running JVM has none */
+    public static synchronized ThreadFactory VirtualFactory() {
+        if (!_isLookedUp) {
+            _isLookedUp = true;
+            try {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, VIRTUAL_PREFIX, 0L);
+                _virtualFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                _virtualFactory = null;
+            }
+        }
+        return _virtualFactory;
+    }
+}
@@ -1,7 +1,46 @@
 public class main {
+    private static final String SERVICE_FLAG = "-service";
+    private static final String VERIFY_FLAG = "-verify";
+
+    /* main <manager config>, main -service <socket file> [concurrent jobs],
+     * or main -verify <output> [workers] */
     public static void main(String[] args) {
+        if (args.length >= 2 && args[0].equals(VERIFY_FLAG)) {
+            int workers = Runtime.getRuntime().availableProcessors();
+            try {
+                if (args.length > 2)
+                    workers = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                workers = 0;
+            }
+            if (!new Manager((String) null).ManageVerify(args[1], workers))
+                System.exit(1);
+            return;
+        }
+        if (args.length >= 2 && args[0].equals(SERVICE_FLAG)) {
+            int concurrency = Runtime.getRuntime().availableProcessors();
+            try {
+                if (args.length > 2)
+                    concurrency = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                concurrency = 0;
+            }
+            if (!new Manager((String) null).ManageService(args[1], concurrency))
+                System.exit(1);
+            return;
+        }
         Manager manager = new Manager(args[0]);
-        if(manager.FormPipeline())
-            manager.ManageExecution();
+        if (manager.IsBatch()) {
+            if (!manager.ManageBatch().IsSuccessful())
+                System.exit(1);
+            return;
+        }
+        if (manager.IsPartitioned()) {
+            if (!manager.ManagePartitions().IsSuccessful())
+                System.exit(1);
+            return;
+        }
+        if(!manager.FormPipeline() || !manager.ManageExecution().IsSuccessful())
+            System.exit(1);
     }
 }
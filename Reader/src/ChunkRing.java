@@ -0,0 +1,121 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/* Lock-free single-producer/single-consumer ring of chunks keyed by int chunk ids.
+ * Only the producer moves _tail and only the consumer moves _head. Kept identical in every module */
+public class ChunkRing {
+    /* Implemented by mediators whose consumer may read the ring directly instead of waiting for notifications */
+    public interface Source {
+        ChunkRing Ring();
+    }
+
+    private final Object[] _chunks;
+    private final int[] _ids;
+    private final int _capacity;
+    private final long _timeoutNanos;
+    private final AtomicLong _head = new AtomicLong();
+    private final AtomicLong _tail = new AtomicLong();
+    private final WaitStrategy _producerWait;
+    private final WaitStrategy _consumerWait;
+    private final BooleanSupplier _hasFreeSlot;
+    private final BooleanSupplier _hasChunk;
+
+    public ChunkRing(int capacity, WaitStrategy.Kind waitKind) {
+        this(capacity, waitKind, 0);
+    }
+
+    /* Waits on either side give up after timeoutNanos, 0 means waiting without limit */
+    public ChunkRing(int capacity, WaitStrategy.Kind waitKind, long timeoutNanos) {
+        _capacity = capacity;
+        _timeoutNanos = timeoutNanos;
+        _chunks = new Object[capacity];
+        _ids = new int[capacity];
+        _producerWait = new WaitStrategy(waitKind);
+        _consumerWait = new WaitStrategy(waitKind);
+        _hasFreeSlot = () -> _tail.get() - _head.get() < _capacity;
+        _hasChunk = () -> _head.get() != _tail.get();
+    }
+
+    /* Producer side: appends a chunk, waiting while the ring is full. Returns false if interrupted or timed out */
+    public boolean Put(int chunkId, Object chunk) {
+        long tail = _tail.get();
+        if (tail - _head.get() >= _capacity && !_producerWait.Await(_hasFreeSlot, _timeoutNanos)) {
+            return false;
+        }
+        int slot = (int) (tail % _capacity);
+        _ids[slot] = chunkId;
+        _chunks[slot] = chunk;
+        _tail.set(tail + 1);
+        _consumerWait.Signal();
+        return true;
+    }
+
+    /* Consumer side: waits until the ring holds a chunk. Returns false if interrupted or timed out */
+    public boolean Await() {
+        return _hasChunk.getAsBoolean() || _consumerWait.Await(_hasChunk, _timeoutNanos);
+    }
+
+    /* Same as Await(), but with its own timeout instead of the ring one unless timeoutNanos is 0 */
+    public boolean Await(long timeoutNanos) {
+        return _hasChunk.getAsBoolean() ||
+                _consumerWait.Await(_hasChunk, timeoutNanos > 0 ? timeoutNanos : _timeoutNanos);
+    }
+
+    /* Timeout of waits on either side, 0 if they wait without limit */
+    public long TimeoutNanos() {
+        return _timeoutNanos;
+    }
+
+    /* Consumer side: checks for a chunk without waiting */
+    public boolean HasChunk() {
+        return _hasChunk.getAsBoolean();
+    }
+
+    /* Monitoring, readable from any thread */
+    public int Size() {
+        long head = _head.get();
+        return (int) (_tail.get() - head);
+    }
+
+    public int Capacity() {
+        return _capacity;
+    }
+
+    public long PutCount() {
+        return _tail.get();
+    }
+
+    public long TakeCount() {
+        return _head.get();
+    }
+
+    public long ProducerWaitNanos() {
+        return _producerWait.WaitedNanos();
+    }
+
+    public long ConsumerWaitNanos() {
+        return _consumerWait.WaitedNanos();
+    }
+
+    /* Consumer side: id of the oldest chunk, valid only after a successful Await() */
+    public int HeadId() {
+        return _ids[(int) (_head.get() % _capacity)];
+    }
+
+    /* Consumer side: removes the oldest chunk if it carries chunkId, otherwise returns null */
+    public Object Take(int chunkId) {
+        long head = _head.get();
+        if (head == _tail.get()) {
+            return null;
+        }
+        int slot = (int) (head % _capacity);
+        if (_ids[slot] != chunkId) {
+            return null;
+        }
+        Object chunk = _chunks[slot];
+        _chunks[slot] = null;
+        _head.set(head + 1);
+        _producerWait.Signal();
+        return chunk;
+    }
+}
@@ -31,11 +31,13 @@ public class ConfigParser {
         return RC.CODE_SUCCESS;
     }
 
+    /* Reads every line, so optional tags left out of the grammar are parsed too */
     public RC ParseConfig() {
         try {
+            String readLine;
             String[] splitLine;
-            for (int i = 0, num = _grammar.numberTokens(); i < num; i++) {
-                splitLine = _fileReader.readLine().split(_grammar.delimiter());
+            while ((readLine = _fileReader.readLine()) != null) {
+                splitLine = readLine.split(_grammar.delimiter());
                 if (splitLine.length == 2) {
                     AddParameter(splitLine[0], splitLine[1]);
                 }
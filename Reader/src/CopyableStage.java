@@ -0,0 +1,10 @@
+import ru.spbstu.pipeline.IPipelineStep;
+
+import java.util.logging.Logger;
+
+/* Opt-in for stages that can hand out fresh instances configured the way they are, so a cached
+ * PipelinePlan builds pipelines without parsing stage config files again. Kept identical in every module */
+public interface CopyableStage {
+    /* Called on a configured, possibly fused stage. The copy is configured but not linked */
+    IPipelineStep Copy(Logger logger);
+}
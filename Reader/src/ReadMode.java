@@ -0,0 +1,5 @@
+public enum ReadMode {
+    STREAM,
+    MAPPED,
+    DIRECT  /* off-heap chunks from a pool of direct buffers, for chunks too large for the heap */;
+}
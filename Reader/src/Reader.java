@@ -4,19 +4,31 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.logging.Logger;
 
-public class Reader implements IReader {
+public class Reader implements IReader, CopyableStage, PartitionStage {
     private FileInputStream _reader;
     private int _bufferSize;
+    private ReadMode _readMode;
+    private int _chunkId;
+    private long _firstChunk;
+    private long _chunks = -1;
+    private long _left;
     private final TYPE[] _outputTypes = {TYPE.BYTE, TYPE.SHORT, TYPE.CHAR};
+    private static final int RING_CAPACITY = 64;
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+    private static final int DIRECT_ARENA = 1024 * 1024;
     private final Logger _logger;
 
-    private HashMap<Integer, byte[]> _chunksToGive;
+    private ChunkRing _chunksToGive;
+    private ChunkPool _pool = new ChunkPool();
     private INotifier _consumerNotifier;
+    private volatile RC _result = RC.CODE_SUCCESS;
 
     @Override
     public TYPE[] getOutputTypes() {
@@ -38,47 +50,86 @@ public class Reader implements IReader {
         }
     }
 
-    class MediatorByte implements IMediator {
+    class MediatorByte implements BufferMediator, ChunkPool.Source {
         public byte[] getData(int chunkId) {
-            synchronized (_chunksToGive) {
-                return _chunksToGive.remove(chunkId);
-            }
+            return ToBytes(Handoff(chunkId));
+        }
+
+        public ByteBuffer getBuffer(int chunkId) {
+            return (ByteBuffer) Handoff(chunkId);
+        }
+
+        public ChunkPool Pool() {
+            return _pool;
         }
     }
 
-    class MediatorShort implements IMediator {
+    class MediatorShort implements BufferMediator {
         public short[] getData(int chunkId) {
-            byte[] data;
-            synchronized (_chunksToGive) {
-                data = _chunksToGive.remove(chunkId);
-            }
-            if (data == null) {
+            ShortBuffer view = getBuffer(chunkId);
+            if (view == null) {
                 return null;
             }
 
-            short[] shorts = new short[data.length / 2];
-            ByteBuffer.wrap(data).asShortBuffer().get(shorts);
+            short[] shorts = new short[view.remaining()];
+            view.get(shorts);
             return shorts;
         }
+
+        public ShortBuffer getBuffer(int chunkId) {
+            ByteBuffer chunk = (ByteBuffer) Handoff(chunkId);
+            return chunk == null ? null : chunk.asShortBuffer();
+        }
     }
 
-    class MediatorChar implements IMediator {
+    /* Chars are the big-endian UTF-16 code units of the chunk, handed out without decoding */
+    class MediatorChar implements BufferMediator {
         public char[] getData(int chunkId) {
-            byte[] data;
-            synchronized (_chunksToGive) {
-                data = _chunksToGive.remove(chunkId);
-            }
-            if (data == null) {
+            CharBuffer view = getBuffer(chunkId);
+            if (view == null) {
                 return null;
             }
 
-            return new String(_chunksToGive.remove(chunkId), StandardCharsets.UTF_16).toCharArray();
+            char[] chars = new char[view.remaining()];
+            view.get(chars);
+            return chars;
+        }
+
+        public CharBuffer getBuffer(int chunkId) {
+            ByteBuffer chunk = (ByteBuffer) Handoff(chunkId);
+            return chunk == null ? null : chunk.asCharBuffer();
+        }
+    }
+
+    /* Every mediator takes its chunk here, so the handoff is traced once whatever the type */
+    private Object Handoff(int chunkId) {
+        Object chunk = _chunksToGive.Take(chunkId);
+        if (chunk != null) {
+            ChunkEvents.Emit(ChunkEvents.Kind.HANDOFF, "Reader", chunkId, SizeOf(chunk));
+        }
+        return chunk;
+    }
+
+    private static int SizeOf(Object chunk) {
+        return ((ByteBuffer) chunk).remaining();
+    }
+
+    /* Chunks are ByteBuffers: pooled ones over whole arrays, read-only slices in MAPPED mode and pooled
+     * direct buffers in DIRECT mode. Only the latter two are copied, and the copy consumes them */
+    private byte[] ToBytes(Object chunk) {
+        if (chunk == null || ChunkPool.Owned(chunk) != null) {
+            return ChunkPool.Owned(chunk);
         }
+        ByteBuffer buffer = (ByteBuffer) chunk;
+        byte[] bytes = _pool.Acquire(buffer.remaining());
+        buffer.get(bytes);
+        _pool.Release(chunk);
+        return bytes;
     }
 
     public Reader(Logger logger){
         _logger = logger;
-        _chunksToGive = new HashMap<>();
+        _chunksToGive = new ChunkRing(RING_CAPACITY, WaitStrategy.Kind.PARK);
     }
 
     @Override
@@ -121,47 +172,242 @@ public class Reader implements IReader {
         }
 
         _bufferSize = Integer.parseInt(config .GetParameter(ReaderTags.BUFFER_SIZE.toString()));
+        /* Configs from before the read modes have no READ_MODE and keep streaming */
+        String readMode = config.GetParameter(ReaderTags.READ_MODE.toString());
+        try {
+            _readMode = readMode == null ? ReadMode.STREAM : ReadMode.valueOf(readMode.trim());
+        } catch (IllegalArgumentException e) {
+            _logger.warning("ERROR: Invalid params(ReadMode) in Reader config");
+            return RC.CODE_CONFIG_SEMANTIC_ERROR;
+        }
         return RC.CODE_SUCCESS;
     }
 
+    @Override
+    public IPipelineStep Copy(Logger logger) {
+        Reader reader = new Reader(logger);
+        reader._bufferSize = _bufferSize;
+        reader._readMode = _readMode;
+        /* Copies of one plan share the pool, so a service or batch reuses chunks between its pipelines */
+        reader._pool = _pool;
+        return reader;
+    }
+
+    @Override
+    public int ChunkSize() {
+        return _bufferSize;
+    }
+
+    @Override
+    public void SetPartition(long firstChunk, long chunks) {
+        _firstChunk = firstChunk;
+        _chunks = chunks;
+    }
+
     public RC execute() {
         if(_reader == null){
             _logger.warning("ERROR: Execution error in Reader, no input stream");
             return RC.CODE_INVALID_INPUT_STREAM;
         }
 
-        RC error = RC.CODE_SUCCESS;
+        _chunkId = 0;
+        /* With a partition set, only its own chunks are read */
+        _left = _chunks < 0 ? Long.MAX_VALUE : _chunks * _bufferSize;
+        if (_firstChunk > 0) {
+            try {
+                _reader.getChannel().position(_firstChunk * _bufferSize);
+            } catch (IOException e) {
+                _logger.warning("ERROR: Execution error in Reader, File positioning error");
+                return RC.CODE_FAILED_TO_READ;
+            }
+        }
+        RC error;
+        switch (_readMode) {
+            case MAPPED:
+                error = ReadMapped();
+                break;
+            case DIRECT:
+                error = ReadPooled(_reader.getChannel());
+                break;
+            default:
+                error = ReadStream();
+        }
+        if (error != RC.CODE_SUCCESS) {
+            return error;
+        }
+
+        error = _consumerNotifier.notify(_chunkId);
+
+        try {
+            _reader.close();
+        } catch (IOException exception) {
+            _logger.warning("ERROR: Execution error in Reader, input stream doesn't close");
+            return RC.CODE_INVALID_INPUT_STREAM;
+        }
+
+        return error;
+    }
 
-        int chunkId = 0;
-        for(int isRead = 0; isRead != -1; chunkId++){
-            byte[] buffer = new byte[_bufferSize];
-            Arrays.fill(buffer, (byte)0);
+    private RC ReadStream() {
+        for(int isRead = 0; isRead != -1;){
+            ByteBuffer chunk = _pool.AcquireBuffer(_bufferSize);
+            byte[] buffer = chunk.array();
 
             try {
-                isRead = _reader.read(buffer, 0, _bufferSize);
-                if(isRead == -1) continue;
+                isRead = _left == 0 ? -1 : _reader.read(buffer, 0, (int) Math.min(_bufferSize, _left));
+                if(isRead == -1) {
+                    _pool.Release(chunk);
+                    continue;
+                }
             } catch (IOException e){
                 _logger.warning("ERROR: Execution error in Reader, File reading error");
                 return RC.CODE_FAILED_TO_READ;
             }
+            _left -= isRead;
+            Arrays.fill(buffer, isRead, _bufferSize, (byte)0);
+
+            RC error;
+            if ((error = Publish(chunk)) != RC.CODE_SUCCESS) {
+                return error;
+            }
+        }
+        return RC.CODE_SUCCESS;
+    }
+
+    /* Hands out slices of the mapped file, only the last partial chunk is copied to be zero padded */
+    private RC ReadMapped() {
+        FileChannel channel = _reader.getChannel();
+        long size;
+        try {
+            size = channel.size();
+        } catch (IOException e) {
+            size = 0;
+        }
+        if (size == 0) {
+            return ReadDirect(channel);
+        }
+
+        long start = _firstChunk * _bufferSize;
+        size = Math.min(size, start + Math.min(_left, size));
+        long window = Math.max(MAP_WINDOW / _bufferSize, 1) * _bufferSize;
+        for (long position = start; position < size; position += window) {
+            MappedByteBuffer mapped;
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(window, size - position));
+            } catch (IOException e) {
+                if (position == start) {
+                    return ReadDirect(channel);
+                }
+                _logger.warning("ERROR: Execution error in Reader, File mapping error");
+                return RC.CODE_FAILED_TO_READ;
+            }
+
+            while (mapped.hasRemaining()) {
+                ByteBuffer chunk;
+                if (mapped.remaining() >= _bufferSize) {
+                    chunk = mapped.slice();
+                    chunk.limit(_bufferSize);
+                    mapped.position(mapped.position() + _bufferSize);
+                } else {
+                    chunk = _pool.AcquireBuffer(_bufferSize);
+                    Arrays.fill(chunk.array(), mapped.remaining(), _bufferSize, (byte) 0);
+                    mapped.get(chunk.array(), 0, mapped.remaining());
+                }
+
+                RC error;
+                if ((error = Publish(chunk)) != RC.CODE_SUCCESS) {
+                    return error;
+                }
+            }
+        }
+        return RC.CODE_SUCCESS;
+    }
+
+    /* Fallback for streams that can't be mapped: chunks are cut from large direct arenas,
+     * so the kernel fills them without a heap copy and no chunk memory is ever reused */
+    private RC ReadDirect(FileChannel channel) {
+        int arenaSize = Math.max(DIRECT_ARENA / _bufferSize, 1) * _bufferSize;
+        ByteBuffer arena = ByteBuffer.allocateDirect(arenaSize);
+        for (boolean isEnd = false; !isEnd;) {
+            if (!arena.hasRemaining()) {
+                arena = ByteBuffer.allocateDirect(arenaSize);
+            }
+            ByteBuffer chunk = arena.slice();
+            chunk.limit((int) Math.min(_bufferSize, _left));
+
+            RC error;
+            if ((error = Fill(channel, chunk)) != RC.CODE_SUCCESS) {
+                return error;
+            }
+            isEnd = chunk.hasRemaining() || _left == 0;
+            if (chunk.position() == 0) {
+                break;
+            }
+            arena.position(arena.position() + _bufferSize);
+            chunk.limit(_bufferSize);
+            chunk.rewind();
 
-            synchronized (_chunksToGive) {
-                _chunksToGive.put(chunkId, buffer);
-                _consumerNotifier.notify(chunkId);
+            if ((error = Publish(chunk.asReadOnlyBuffer())) != RC.CODE_SUCCESS) {
+                return error;
             }
         }
+        return RC.CODE_SUCCESS;
+    }
+
+    /* Chunks are pooled direct buffers, zero padded like stream chunks and released by their last consumer */
+    private RC ReadPooled(FileChannel channel) {
+        for (boolean isEnd = false; !isEnd;) {
+            ByteBuffer chunk = _pool.AcquireDirect(_bufferSize);
+            chunk.limit((int) Math.min(_bufferSize, _left));
+
+            RC error;
+            if ((error = Fill(channel, chunk)) != RC.CODE_SUCCESS) {
+                return error;
+            }
+            isEnd = chunk.hasRemaining() || _left == 0;
+            if (chunk.position() == 0) {
+                _pool.Release(chunk);
+                break;
+            }
+            chunk.limit(_bufferSize);
+            while (chunk.hasRemaining()) {
+                chunk.put((byte) 0);
+            }
+            chunk.clear();
 
-        synchronized (_chunksToGive) {
-            _consumerNotifier.notify(chunkId);
+            if ((error = Publish(chunk)) != RC.CODE_SUCCESS) {
+                return error;
+            }
         }
+        return RC.CODE_SUCCESS;
+    }
 
+    /* Reads up to the limit of chunk, which stays short of it only at the end of the input */
+    private RC Fill(FileChannel channel, ByteBuffer chunk) {
         try {
-            _reader.close();
-        } catch (IOException exception) {
-            _logger.warning("ERROR: Execution error in Reader, input stream doesn't close");
-            return RC.CODE_INVALID_INPUT_STREAM;
+            while (chunk.hasRemaining()) {
+                if (channel.read(chunk) == -1) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            _logger.warning("ERROR: Execution error in Reader, File reading error");
+            return RC.CODE_FAILED_TO_READ;
         }
+        _left -= chunk.position();
+        return RC.CODE_SUCCESS;
+    }
 
+    private RC Publish(Object chunk) {
+        ChunkEvents.Emit(ChunkEvents.Kind.CREATED, "Reader", _chunkId, SizeOf(chunk));
+        if (!_chunksToGive.Put(_chunkId, chunk)) {
+            _logger.warning("ERROR: Execution error in Reader, interrupted while waiting for consumer");
+            return RC.CODE_SYNCHRONIZATION_ERROR;
+        }
+        RC error;
+        if ((error = _consumerNotifier.notify(_chunkId++)) != RC.CODE_SUCCESS) {
+            _logger.warning("ERROR: Execution error in Reader, consumer notification failed");
+        }
         return error;
     }
 
@@ -171,8 +417,12 @@ public class Reader implements IReader {
         return RC.CODE_SUCCESS;
     }
 
+    public RC getResult() {
+        return _result;
+    }
+
     @Override
     public void run() {
-        execute();
+        _result = execute();
     }
 }
@@ -9,7 +9,9 @@ public class ReaderGrammar extends BaseGrammar {
     public static String[] Grammar(){
         ReaderTags[] tags = ReaderTags.values();
         String[] grammar = new String[tags.length];
+        int count = 0;
         for(int i = 0; i < tags.length; i++)
-            grammar[i] = tags[i].toString();
-        return grammar;
+            if(!tags[i].IsOptional())
+                grammar[count++] = tags[i].toString();
+        return Arrays.copyOf(grammar, count);
     }}
@@ -1,3 +1,15 @@
 public enum ReaderTags {
-    BUFFER_SIZE;
+    BUFFER_SIZE(false),
+    READ_MODE(true);
+
+    private final boolean _isOptional;
+
+    ReaderTags(boolean isOptional) {
+        _isOptional = isOptional;
+    }
+
+    /* Optional tags are left out of the grammar, so configs may omit them */
+    public boolean IsOptional() {
+        return _isOptional;
+    }
 }
@@ -0,0 +1,394 @@
+import ru.spbstu.pipeline.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/* Writer over FileChannel: small chunks are staged in a pool of direct buffers, large or direct
+ * chunks are queued as they are, and everything queued goes out in one gathering write
+ * whenever the flush policy (bytes, chunks, time) or an exhausted pool asks for it.
+ * Chunk arrays and direct chunks go back to the producer's ChunkPool once copied or, if queued, once written */
+public class ChannelWriter implements IWriter, CopyableStage, PartitionStage {
+    private FileChannel _channel;
+    private IMediator _prodMediator;
+    private ChunkRing _prodRing;
+    private ChunkPool _pool;
+    private final TYPE[] _workingTypes = {TYPE.BYTE};
+    private static final int RING_CAPACITY = 64;
+    private static final int MAX_GATHER = 128;
+    private final Logger _logger;
+    private volatile RC _result = RC.CODE_SUCCESS;
+
+    private ChunkRing _chunksToReceive;
+
+    private int _bufferSize;
+    private int _bufferCount;
+    private int _flushBytes;
+    private int _flushChunks;
+    private long _flushNanos;
+    private final ArrayDeque<ByteBuffer> _freeBuffers = new ArrayDeque<>();
+    private ByteBuffer _current;
+    private final ByteBuffer[] _pending = new ByteBuffer[MAX_GATHER];
+    private final boolean[] _pooled = new boolean[MAX_GATHER];
+    private final Object[] _retained = new Object[MAX_GATHER];
+    private int _pendingCount;
+    private long _pendingBytes;
+    private int _pendingChunks;
+    private long _firstPendingTime;
+    private long _lastChunkTime;
+    private int _chunkId;
+    private long _firstChunk = -1;
+    private long _position = -1;
+    private int _chunkSize;
+
+    public ChannelWriter(Logger logger) {
+        _logger = logger;
+        _chunksToReceive = new ChunkRing(RING_CAPACITY, WaitStrategy.Kind.PARK);
+    }
+
+    @Override
+    public RC setOutputStream(FileOutputStream fileOutputStream) {
+        if (fileOutputStream == null) {
+            _logger.warning("ERROR: Invalid output stream in ChannelWriter");
+            return RC.CODE_INVALID_OUTPUT_STREAM;
+        }
+        _channel = fileOutputStream.getChannel();
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public RC setConfig(String s) {
+        if (s == null) {
+            _logger.warning("ERROR: Invalid config path in ChannelWriter");
+            return RC.CODE_INVALID_ARGUMENT;
+        } else {
+            File test = new File(s);
+            if (!test.exists()) {
+                _logger.warning("ERROR: Config file reading error in ChannelWriter");
+                return RC.CODE_FAILED_TO_READ;
+            }
+        }
+
+        ConfigParser config = new ConfigParser(new ChannelWriterGrammar());
+        RC error;
+        if ((error = config.SetFile(s)) != RC.CODE_SUCCESS) {
+            _logger.warning("ERROR: Config reading error in ChannelWriter Config Parser");
+            return error;
+        }
+        if ((error = config.ParseConfig()) != RC.CODE_SUCCESS) {
+            _logger.warning("ERROR: Config parsing error in ChannelWriter Config Parser");
+            return error;
+        }
+        if ((error = config.CheckConfig()) != RC.CODE_SUCCESS) {
+            _logger.warning("ERROR: Invalid config error in ChannelWriter Config Parser");
+            return error;
+        }
+
+        _bufferSize = Integer.parseInt(config.GetParameter(ChannelWriterTags.BUFFER_SIZE.toString()));
+        _bufferCount = Integer.parseInt(config.GetParameter(ChannelWriterTags.BUFFER_COUNT.toString()));
+        _flushBytes = Integer.parseInt(config.GetParameter(ChannelWriterTags.FLUSH_BYTES.toString()));
+        _flushChunks = Integer.parseInt(config.GetParameter(ChannelWriterTags.FLUSH_CHUNKS.toString()));
+        long flushMillis = Long.parseLong(config.GetParameter(ChannelWriterTags.FLUSH_MILLIS.toString()));
+        if (_bufferSize < 1 || _bufferCount < 1 || _flushBytes < 0 || _flushChunks < 0 || flushMillis < 0) {
+            _logger.warning("ERROR: Invalid params in ChannelWriter config");
+            return RC.CODE_CONFIG_SEMANTIC_ERROR;
+        }
+        _flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        AllocateBuffers();
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public IPipelineStep Copy(Logger logger) {
+        ChannelWriter writer = new ChannelWriter(logger);
+        writer._bufferSize = _bufferSize;
+        writer._bufferCount = _bufferCount;
+        writer._flushBytes = _flushBytes;
+        writer._flushChunks = _flushChunks;
+        writer._flushNanos = _flushNanos;
+        writer.AllocateBuffers();
+        return writer;
+    }
+
+    private void AllocateBuffers() {
+        _freeBuffers.clear();
+        for (int i = 0; i < _bufferCount; i++) {
+            _freeBuffers.push(ByteBuffer.allocateDirect(_bufferSize));
+        }
+        _current = _freeBuffers.poll();
+    }
+
+    @Override
+    public int ChunkSize() {
+        return 0;
+    }
+
+    @Override
+    public void SetPartition(long firstChunk, long chunks) {
+        _firstChunk = firstChunk;
+        _position = -1;
+    }
+
+    @Override
+    public RC setProducer(IProducer producer) {
+        if (producer == null) {
+            _logger.warning("ERROR: Wrong producer in ChannelWriter");
+            return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
+        }
+
+        TYPE[] producerTypes = producer.getOutputTypes();
+        for (TYPE workingType : _workingTypes) {
+            for (TYPE producerType : producerTypes) {
+                if (workingType == producerType) {
+                    _prodMediator = producer.getMediator(workingType);
+                    if (_prodMediator instanceof ChunkRing.Source) {
+                        _prodRing = ((ChunkRing.Source) _prodMediator).Ring();
+                    }
+                    _pool = ChunkPool.Of(_prodMediator);
+                    return RC.CODE_SUCCESS;
+                }
+            }
+        }
+
+        _logger.warning("No compatibility with producer");
+        return RC.CODE_FAILED_PIPELINE_CONSTRUCTION;
+    }
+
+    public RC execute(byte[] bytes) {
+        return execute(bytes == null ? null : ByteBuffer.wrap(bytes));
+    }
+
+    public RC execute(ByteBuffer chunk) {
+        return execute(chunk, null);
+    }
+
+    /* owned is what goes back to the pool once the chunk is copied or written (the chunk itself), otherwise null */
+    private RC execute(ByteBuffer chunk, Object owned) {
+        if (chunk == null) {
+            _logger.warning("ERROR: Invalid writing data");
+            return RC.CODE_INVALID_ARGUMENT;
+        }
+        if (_firstChunk >= 0) {
+            /* Every chunk of the input has the size of the first one, and so must every product for lanes to add up */
+            if (_position < 0) {
+                _chunkSize = chunk.remaining();
+                _position = _firstChunk * chunk.remaining();
+            } else if (chunk.remaining() != _chunkSize) {
+                _logger.warning("ERROR: Partitioned ChannelWriter needs products of the size of the first one");
+                return RC.CODE_CONFIG_SEMANTIC_ERROR;
+            }
+        }
+        if (_pendingChunks == 0) {
+            _firstPendingTime = System.nanoTime();
+        }
+
+        RC error;
+        if (chunk.isDirect() || chunk.remaining() >= _current.capacity()) {
+            if ((error = Seal()) != RC.CODE_SUCCESS || (error = AddPending(chunk.duplicate(), false, owned)) != RC.CODE_SUCCESS) {
+                return error;
+            }
+        } else {
+            ByteBuffer source = chunk.duplicate();
+            while (source.hasRemaining()) {
+                if (!_current.hasRemaining() && (error = Seal()) != RC.CODE_SUCCESS) {
+                    return error;
+                }
+                ByteBuffer part = source.duplicate();
+                part.limit(part.position() + Math.min(part.remaining(), _current.remaining()));
+                _current.put(part);
+                source.position(part.position());
+            }
+            if (owned != null) {
+                _pool.Release(owned);
+            }
+        }
+
+        _pendingChunks++;
+        return IsFlushDue() ? Flush() : RC.CODE_SUCCESS;
+    }
+
+    private boolean IsFlushDue() {
+        return (_flushBytes > 0 && _pendingBytes + _current.position() >= _flushBytes) ||
+                (_flushChunks > 0 && _pendingChunks >= _flushChunks) ||
+                (_flushNanos > 0 && System.nanoTime() - _firstPendingTime >= _flushNanos);
+    }
+
+    /* How long the run loop may wait for the next chunk before the time policy flushes, 0 if unbounded */
+    private long FlushDelay() {
+        if (_flushNanos == 0 || _pendingChunks == 0) {
+            return 0;
+        }
+        return Math.max(_firstPendingTime + _flushNanos - System.nanoTime(), 1);
+    }
+
+    /* The next wait ends at the flush deadline or once the ring's timeout has passed since the last chunk,
+     * whichever comes first, so flushes on the way do not extend the timeout */
+    private long WaitDelay(ChunkRing source) {
+        long flushDelay = FlushDelay();
+        if (source.TimeoutNanos() == 0) {
+            return flushDelay;
+        }
+        long timeoutDelay = Math.max(_lastChunkTime + source.TimeoutNanos() - System.nanoTime(), 1);
+        return flushDelay == 0 ? timeoutDelay : Math.min(flushDelay, timeoutDelay);
+    }
+
+    private boolean IsTimedOut(ChunkRing source) {
+        return Thread.currentThread().isInterrupted() ||
+                (source.TimeoutNanos() > 0 && System.nanoTime() - _lastChunkTime >= source.TimeoutNanos());
+    }
+
+    private RC Flush() {
+        RC error = Seal();
+        if (error == RC.CODE_SUCCESS) {
+            error = WritePending();
+        }
+        _pendingChunks = 0;
+        return error;
+    }
+
+    /* Queues the staged part of the current pool buffer and takes a fresh one, writing out if the pool is empty */
+    private RC Seal() {
+        if (_current.position() == 0) {
+            return RC.CODE_SUCCESS;
+        }
+        _current.flip();
+        RC error = AddPending(_current, true, null);
+        if (error == RC.CODE_SUCCESS && _freeBuffers.isEmpty()) {
+            error = WritePending();
+        }
+        _current = _freeBuffers.poll();
+        return error;
+    }
+
+    private RC AddPending(ByteBuffer buffer, boolean pooled, Object retained) {
+        RC error;
+        if (_pendingCount == MAX_GATHER && (error = WritePending()) != RC.CODE_SUCCESS) {
+            return error;
+        }
+        _pending[_pendingCount] = buffer;
+        _pooled[_pendingCount] = pooled;
+        _retained[_pendingCount++] = retained;
+        _pendingBytes += buffer.remaining();
+        return RC.CODE_SUCCESS;
+    }
+
+    private RC WritePending() {
+        Object event = ChunkEvents.Begin(ChunkEvents.Kind.FLUSH);
+        long written = _pendingBytes;
+        try {
+            if (_position < 0) {
+                for (long left = _pendingBytes; left > 0;) {
+                    left -= _channel.write(_pending, 0, _pendingCount);
+                }
+            } else {
+                /* Lanes of a partitioned input share one file descriptor, so they write at positions of their own */
+                for (int i = 0; i < _pendingCount; i++) {
+                    while (_pending[i].hasRemaining()) {
+                        _position += _channel.write(_pending[i], _position);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            _logger.warning("ERROR: Execution error in ChannelWriter");
+            return RC.CODE_FAILED_TO_WRITE;
+        }
+
+        for (int i = 0; i < _pendingCount; i++) {
+            if (_pooled[i]) {
+                _pending[i].clear();
+                _freeBuffers.push(_pending[i]);
+            }
+            if (_retained[i] != null) {
+                _pool.Release(_retained[i]);
+                _retained[i] = null;
+            }
+            _pending[i] = null;
+        }
+        _pendingCount = 0;
+        _pendingBytes = 0;
+        ChunkEvents.Commit(event, "ChannelWriter", _chunkId, written);
+        return RC.CODE_SUCCESS;
+    }
+
+    class ChannelWriterNotifier implements INotifier {
+        @Override
+        public RC notify(int chunkId) {
+            if (_prodRing != null) {
+                return RC.CODE_SUCCESS;
+            }
+            if (!_chunksToReceive.Put(chunkId, null)) {
+                return RC.CODE_SYNCHRONIZATION_ERROR;
+            }
+            return RC.CODE_SUCCESS;
+        }
+    }
+
+    @Override
+    public RC addNotifier(INotifier iNotifier) {
+        return RC.CODE_SUCCESS;
+    }
+
+    @Override
+    public INotifier getNotifier() {
+        return new ChannelWriterNotifier();
+    }
+
+    public RC getResult() {
+        return _result;
+    }
+
+    @Override
+    public void run() {
+        ChunkRing source = _prodRing != null ? _prodRing : _chunksToReceive;
+        _lastChunkTime = System.nanoTime();
+        while (true) {
+            if (!source.Await(WaitDelay(source))) {
+                if (IsTimedOut(source)) {
+                    _logger.warning(RC.CODE_SYNCHRONIZATION_ERROR.toString());
+                    _result = RC.CODE_SYNCHRONIZATION_ERROR;
+                    return;
+                }
+                RC result;
+                if (_pendingChunks != 0 && (result = Flush()) != RC.CODE_SUCCESS) {
+                    _logger.warning(result.toString());
+                    _result = result;
+                    return;
+                }
+                continue;
+            }
+            _lastChunkTime = System.nanoTime();
+
+            int chunkId = source.HeadId();
+            _chunkId = chunkId;
+            Object chunk;
+            if (_prodRing != null) {
+                chunk = _prodRing.Take(chunkId);
+            } else {
+                _chunksToReceive.Take(chunkId);
+                chunk = _prodMediator.getData(chunkId);
+            }
+
+            RC result;
+            if (chunk == null) {
+                result = Flush();
+            } else {
+                /* Views over memory of others (mapped, shared with other consumers) are released as well */
+                Object owned = _pool == null ? null : chunk;
+                result = execute(chunk instanceof ByteBuffer ? (ByteBuffer) chunk : ByteBuffer.wrap((byte[]) chunk), owned);
+            }
+            if (result != RC.CODE_SUCCESS) {
+                _logger.warning(result.toString());
+                _result = result;
+                return;
+            }
+            if (chunk == null) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+import ru.spbstu.pipeline.BaseGrammar;
+
+public class ChannelWriterGrammar extends BaseGrammar {
+    public ChannelWriterGrammar() {
+        super(Grammar());
+    }
+    public static String[] Grammar(){
+        ChannelWriterTags[] tags = ChannelWriterTags.values();
+        String[] grammar = new String[tags.length];
+        for(int i = 0; i < tags.length; i++)
+            grammar[i] = tags[i].toString();
+        return grammar;
+    }
+}
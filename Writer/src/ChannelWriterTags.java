@@ -0,0 +1,7 @@
+public enum ChannelWriterTags {
+    BUFFER_SIZE,
+    BUFFER_COUNT,
+    FLUSH_BYTES,
+    FLUSH_CHUNKS,
+    FLUSH_MILLIS;
+}
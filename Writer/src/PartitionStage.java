@@ -0,0 +1,12 @@
+/* Opt-in for stages that can work on one range of chunks of a file, so a single large input can be split
+ * among several lanes of the same chain (see PartitionManager). A stage between reader and writer opts in
+ * by making every product from one chunk, its size set by the chunk size only. Kept identical in every module */
+public interface PartitionStage {
+    /* Bytes per chunk of a stage cutting its input into chunks (a reader), else 0 */
+    int ChunkSize();
+
+    /* Called before the stage runs: the lane handles chunks [firstChunk, firstChunk + chunks) of the input.
+     * A reader reads only their bytes, a writer writes from the output position of firstChunk on,
+     * a stage in between has nothing to do */
+    void SetPartition(long firstChunk, long chunks);
+}
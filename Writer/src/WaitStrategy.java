@@ -0,0 +1,96 @@
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/* How a thread waits on a ChunkRing until the other side makes progress.
+ * Each instance serves a single waiting thread. Kept identical in every module */
+public class WaitStrategy {
+    public enum Kind {
+        SPIN,   /* busy loop, only pays off when every stage thread owns a core */
+        YIELD,
+        PARK
+    }
+
+    private static final int SPIN_ROUNDS = 100;
+    private static final int YIELD_ROUNDS = 10;
+
+    private final Kind _kind;
+    private volatile Thread _waiter;
+    private volatile long _waitedNanos;
+
+    public WaitStrategy(Kind kind) {
+        _kind = kind;
+    }
+
+    public static Kind ParseKind(String kind) {
+        try {
+            return Kind.valueOf(kind.trim());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return null;
+        }
+    }
+
+    /* Returns false if the thread was interrupted before ready became true */
+    public boolean Await(BooleanSupplier ready) {
+        return Await(ready, 0);
+    }
+
+    /* Same as Await(ready), but also gives up after timeoutNanos unless it is 0 */
+    public boolean Await(BooleanSupplier ready, long timeoutNanos) {
+        long start = System.nanoTime();
+        boolean isReady = Wait(ready, timeoutNanos, start);
+        _waitedNanos += System.nanoTime() - start;
+        return isReady;
+    }
+
+    /* Total time spent in Await so far, readable from any thread */
+    public long WaitedNanos() {
+        return _waitedNanos;
+    }
+
+    private boolean Wait(BooleanSupplier ready, long timeoutNanos, long start) {
+        long deadline = timeoutNanos > 0 ? start + timeoutNanos : 0;
+        long remaining = 0;
+        for (int round = 0; !ready.getAsBoolean(); round++) {
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            if (timeoutNanos > 0 && (remaining = deadline - System.nanoTime()) <= 0) {
+                return false;
+            }
+            switch (_kind) {
+                case SPIN:
+                    break;
+                case YIELD:
+                    Thread.yield();
+                    break;
+                case PARK:
+                    if (round < SPIN_ROUNDS) {
+                        break;
+                    }
+                    if (round < SPIN_ROUNDS + YIELD_ROUNDS) {
+                        Thread.yield();
+                        break;
+                    }
+                    _waiter = Thread.currentThread();
+                    if (!ready.getAsBoolean()) {
+                        if (timeoutNanos > 0) {
+                            LockSupport.parkNanos(this, remaining);
+                        } else {
+                            LockSupport.park(this);
+                        }
+                    }
+                    _waiter = null;
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /* Called by the other side after every state change the waiter may depend on */
+    public void Signal() {
+        Thread waiter = _waiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+}
@@ -3,24 +3,30 @@ import ru.spbstu.pipeline.*;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
 import java.util.logging.Logger;
 
-public class Writer implements IWriter {
+public class Writer implements IWriter, CopyableStage, PartitionStage {
     private FileOutputStream _writer;
     private IMediator _prodMediator;
+    private ChunkRing _prodRing;
+    private ChunkPool _pool;
     private byte[] _buffer;
     private int _bufferSize;
     private int _bufferPos;
+    private long _firstChunk = -1;
+    private long _position = -1;
+    private int _chunkSize;
     private final TYPE[] _workingTypes = {TYPE.BYTE, TYPE.SHORT, TYPE.CHAR};
+    private static final int RING_CAPACITY = 64;
     private final Logger _logger;
+    private volatile RC _result = RC.CODE_SUCCESS;
 
-    private LinkedList<Integer> _chunksToReceive;
+    private ChunkRing _chunksToReceive;
 
     public Writer(Logger logger) {
         _logger = logger;
-        _chunksToReceive = new LinkedList<>();
+        _chunksToReceive = new ChunkRing(RING_CAPACITY, WaitStrategy.Kind.PARK);
     }
 
     @Override
@@ -66,6 +72,25 @@ public class Writer implements IWriter {
         return RC.CODE_SUCCESS;
     }
 
+    @Override
+    public IPipelineStep Copy(Logger logger) {
+        Writer writer = new Writer(logger);
+        writer._bufferSize = _bufferSize;
+        writer._buffer = new byte[_bufferSize];
+        return writer;
+    }
+
+    @Override
+    public int ChunkSize() {
+        return 0;
+    }
+
+    @Override
+    public void SetPartition(long firstChunk, long chunks) {
+        _firstChunk = firstChunk;
+        _position = -1;
+    }
+
     @Override
     public RC setProducer(IProducer producer) {
         if (producer == null) {
@@ -78,6 +103,10 @@ public class Writer implements IWriter {
             for (TYPE producerType : producerTypes) {
                 if (workingType == producerType) {
                     _prodMediator = producer.getMediator(workingType);
+                    if (_prodMediator instanceof ChunkRing.Source) {
+                        _prodRing = ((ChunkRing.Source) _prodMediator).Ring();
+                    }
+                    _pool = ChunkPool.Of(_prodMediator);
                     return RC.CODE_SUCCESS;
                 }
             }
@@ -92,6 +121,16 @@ public class Writer implements IWriter {
             _logger.warning("ERROR: Invalid writing data");
             return RC.CODE_INVALID_ARGUMENT;
         }
+        if (_firstChunk >= 0) {
+            /* Every chunk of the input has the size of the first one, and so must every product for lanes to add up */
+            if (_position < 0) {
+                _chunkSize = bytes.length;
+                _position = _firstChunk * bytes.length;
+            } else if (bytes.length != _chunkSize) {
+                _logger.warning("ERROR: Partitioned Writer needs products of the size of the first one");
+                return RC.CODE_CONFIG_SEMANTIC_ERROR;
+            }
+        }
 
         if (bytes.length < _bufferSize - _bufferPos) {
             System.arraycopy(bytes, 0, _buffer, _bufferPos, bytes.length);
@@ -101,12 +140,10 @@ public class Writer implements IWriter {
             int bytesPos = 0;
             if (_bufferPos != 0) {
                 bytesPos = _bufferSize - _bufferPos;
-                byte[] tmp = Arrays.copyOf(_buffer, _bufferSize);
-                System.arraycopy(bytes, 0, tmp, _bufferPos, bytesPos);
-                _buffer = tmp;
-                
+                System.arraycopy(bytes, 0, _buffer, _bufferPos, bytesPos);
+
                 try {
-                    _writer.write(_buffer, 0, _bufferSize);
+                    Write(_buffer, 0, _bufferSize);
                 } catch (IOException e) {
                     _logger.warning("ERROR: Execution error in Writer");
                     return RC.CODE_FAILED_TO_WRITE;
@@ -117,32 +154,55 @@ public class Writer implements IWriter {
             int fullArrays = (bytes.length - bytesPos) / _bufferSize;
             for (int i = 0; i < fullArrays; i++) {
                 try {
-                    _writer.write(bytes, bytesPos + _bufferSize * i, _bufferSize);
+                    Write(bytes, bytesPos + _bufferSize * i, _bufferSize);
                 } catch (IOException var7) {
                     _logger.warning("ERROR: Execution error in Writer");
                     return RC.CODE_FAILED_TO_WRITE;
                 }
             }
 
-            int residue = (bytes.length - bytesPos) % _bufferSize;
-            if (residue != 0) {
-                _bufferPos = residue;
-                _buffer = Arrays.copyOfRange(bytes, _bufferSize * fullArrays, bytes.length - 1);
-            } else {
-                Arrays.fill(_buffer, (byte) 0);
-            }
+            /* Products of any size (e.g. compressed ones) leave a tail, kept for the next product */
+            _bufferPos = (bytes.length - bytesPos) % _bufferSize;
+            System.arraycopy(bytes, bytes.length - _bufferPos, _buffer, 0, _bufferPos);
         }
         return RC.CODE_SUCCESS;
     }
 
+    /* Lanes of a partitioned input share one file descriptor, so they write at positions of their own */
+    private void Write(byte[] bytes, int offset, int length) throws IOException {
+        if (_position < 0) {
+            _writer.write(bytes, offset, length);
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+        while (buffer.hasRemaining()) {
+            _position += _writer.getChannel().write(buffer, _position);
+        }
+    }
+
+    /* Chunks read straight from the channel ring may be ByteBuffer views, only those over
+     * arrays of their own are used without a copy. Direct chunks go back to the pool once copied */
+    private byte[] ToBytes(Object chunk) {
+        if (chunk == null || ChunkPool.Owned(chunk) != null) {
+            return ChunkPool.Owned(chunk);
+        }
+        ByteBuffer buffer = ((ByteBuffer) chunk).duplicate();
+        byte[] bytes = _pool != null ? _pool.Acquire(buffer.remaining()) : new byte[buffer.remaining()];
+        buffer.get(bytes);
+        if (_pool != null) {
+            _pool.Release(chunk);
+        }
+        return bytes;
+    }
+
     class WriterNotifier implements INotifier {
         @Override
         public RC notify(int chunkId) {
-            synchronized (_chunksToReceive) {
-                _chunksToReceive.add(chunkId);
+            if (_prodRing != null) {
+                return RC.CODE_SUCCESS;
             }
-            synchronized (Writer.this) {
-                Writer.this.notify();
+            if (!_chunksToReceive.Put(chunkId, null)) {
+                return RC.CODE_SYNCHRONIZATION_ERROR;
             }
             return RC.CODE_SUCCESS;
         }
@@ -158,32 +218,42 @@ public class Writer implements IWriter {
         return new WriterNotifier();
     }
 
+    public RC getResult() {
+        return _result;
+    }
+
     @Override
     public void run() {
+        ChunkRing source = _prodRing != null ? _prodRing : _chunksToReceive;
         while (true) {
-            Integer chunkId;
-            synchronized (_chunksToReceive) {
-                chunkId = _chunksToReceive.poll();
+            if (!source.Await()) {
+                _logger.warning(RC.CODE_SYNCHRONIZATION_ERROR.toString());
+                _result = RC.CODE_SYNCHRONIZATION_ERROR;
+                return;
             }
 
-            if (chunkId == null) {
-                try {
-                    synchronized (this) {
-                        wait();
-                    }
-                    continue;
-
-                } catch (InterruptedException e) {
-                    _logger.warning(RC.CODE_SYNCHRONIZATION_ERROR.toString());
-                    return;
-                }
+            int chunkId = source.HeadId();
+            Object chunk;
+            byte[] bytes;
+            if (_prodRing != null) {
+                chunk = _prodRing.Take(chunkId);
+                bytes = ToBytes(chunk);
+            } else {
+                _chunksToReceive.Take(chunkId);
+                chunk = _prodMediator.getData(chunkId);
+                bytes = (byte[]) chunk;
             }
-
-            byte[] bytes = (byte[])_prodMediator.getData(chunkId);
             if (bytes != null) {
-                RC result;
-                if ((result = execute(bytes)) != RC.CODE_SUCCESS) {
+                Object event = ChunkEvents.Begin(ChunkEvents.Kind.FLUSH);
+                RC result = execute(bytes);
+                ChunkEvents.Commit(event, "Writer", chunkId, bytes.length);
+                if (_pool != null) {
+                    /* A buffer over the array goes back with it, so the pool need not wrap the array again */
+                    _pool.Release(ChunkPool.Owned(chunk) == bytes ? chunk : bytes);
+                }
+                if (result != RC.CODE_SUCCESS) {
                     _logger.warning(result.toString());
+                    _result = result;
                     return;
                 }
 
@@ -191,5 +261,14 @@ public class Writer implements IWriter {
                 break;
             }
         }
+        if (_bufferPos != 0) {
+            try {
+                Write(_buffer, 0, _bufferPos);
+            } catch (IOException e) {
+                _logger.warning("ERROR: Execution error in Writer");
+                _result = RC.CODE_FAILED_TO_WRITE;
+            }
+            _bufferPos = 0;
+        }
     }
 }
\ No newline at end of file